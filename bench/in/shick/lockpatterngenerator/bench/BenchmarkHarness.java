@@ -0,0 +1,83 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// A small stand-in for JMH: warmup and measurement iterations of a fixed
+// number of operations each, reporting time per operation and, where the
+// JVM can count them, bytes allocated per operation (JMH's
+// gc.alloc.rate.norm).
+public class BenchmarkHarness
+{
+    public static final int WARMUP_ITERATIONS = 3;
+    public static final int MEASURED_ITERATIONS = 5;
+
+    // one benchmark iteration of "operations" operations, returning
+    // something derived from the results so the JIT can't drop the work
+    public interface Benchmark
+    {
+        long run(int operations);
+    }
+
+    private static long sSink;
+
+    // prints and returns nanoseconds per operation, the best of the
+    // measured iterations
+    public static double measure(String name, int operations,
+            Benchmark benchmark)
+    {
+        for(int i = 0; i < WARMUP_ITERATIONS; i++)
+        {
+            sSink += benchmark.run(operations);
+        }
+        double bestNanos = Double.POSITIVE_INFINITY;
+        double bytes = Double.NaN;
+        for(int i = 0; i < MEASURED_ITERATIONS; i++)
+        {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            sSink += benchmark.run(operations);
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+            bestNanos = Math.min(bestNanos, (double) elapsed / operations);
+            if(allocatedBefore >= 0)
+            {
+                bytes = (double) (allocatedAfter - allocatedBefore)
+                    / operations;
+            }
+        }
+        System.out.printf("%-40s %12.1f ns/op %10.1f B/op%n", name,
+                bestNanos, bytes);
+        return bestNanos;
+    }
+
+    // bytes allocated by this thread so far, or -1 if the JVM won't say
+    private static long allocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator.bench;
+
+import in.shick.lockpatterngenerator.GridModel;
+import in.shick.lockpatterngenerator.PatternGenerator;
+import in.shick.lockpatterngenerator.RandomSource;
+
+import java.nio.IntBuffer;
+
+// Regression benchmarks for pattern generation: getPattern(int[]) and
+// generateBatch() over grid lengths 3 to 16 with short, mixed and
+// full-length patterns, plus computeGcd(), building a GridModel from
+// scratch, and switching sizes with setGridLength(), which reuses
+// GridModel's cached tables.  Only touches the int[] API, so it runs on a
+// plain JVM without android.jar:
+//
+//   java -cp out in.shick.lockpatterngenerator.bench.GenerationBenchmark
+public class GenerationBenchmark
+{
+    public static final int MIN_GRID_LENGTH = 3;
+    public static final int MAX_GRID_LENGTH = 16;
+    // rough work per iteration, so big grids don't take forever
+    public static final long WORK_PER_ITERATION = 20000000;
+
+    public static void main(String[] args)
+    {
+        for(int gridLength = MIN_GRID_LENGTH; gridLength <= MAX_GRID_LENGTH;
+                gridLength++)
+        {
+            int nodeCount = gridLength * gridLength;
+            benchmarkPattern(gridLength, 4, 4);
+            benchmarkPattern(gridLength, 4, nodeCount);
+            benchmarkPattern(gridLength, nodeCount, nodeCount);
+            benchmarkBatch(gridLength, 4, nodeCount);
+        }
+        benchmarkGcd();
+        for(int gridLength = MIN_GRID_LENGTH; gridLength <= MAX_GRID_LENGTH;
+                gridLength++)
+        {
+            benchmarkModel(gridLength);
+            benchmarkRebuild(gridLength);
+        }
+    }
+
+    static PatternGenerator createGenerator(int gridLength, int minNodes,
+            int maxNodes)
+    {
+        PatternGenerator generator = new PatternGenerator();
+        generator.setRandomSource(new RandomSource.Xoroshiro(42));
+        generator.setGridLength(gridLength);
+        generator.setMinNodes(minNodes);
+        generator.setMaxNodes(maxNodes);
+        return generator;
+    }
+
+    static void benchmarkPattern(int gridLength, int minNodes, int maxNodes)
+    {
+        final PatternGenerator generator =
+            createGenerator(gridLength, minNodes, maxNodes);
+        final int[] pattern = new int[gridLength * gridLength];
+        BenchmarkHarness.measure("getPattern " + gridLength + "x"
+                + gridLength + " " + minNodes + "-" + maxNodes,
+                operations(minNodes, maxNodes),
+                new BenchmarkHarness.Benchmark() {
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for(int i = 0; i < operations; i++) {
+                    sink += generator.getPattern(pattern);
+                }
+                return sink;
+            }
+        });
+    }
+
+    static void benchmarkBatch(int gridLength, int minNodes, int maxNodes)
+    {
+        final PatternGenerator generator =
+            createGenerator(gridLength, minNodes, maxNodes);
+        final int batch = 1000;
+        final IntBuffer buffer = IntBuffer.allocate(batch * (1 + maxNodes));
+        BenchmarkHarness.measure("generateBatch " + gridLength + "x"
+                + gridLength + " " + minNodes + "-" + maxNodes,
+                operations(minNodes, maxNodes),
+                new BenchmarkHarness.Benchmark() {
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for(int done = 0; done < operations; done += batch) {
+                    buffer.clear();
+                    generator.generateBatch(
+                        Math.min(batch, operations - done), buffer);
+                    sink += buffer.position();
+                }
+                return sink;
+            }
+        });
+    }
+
+    static void benchmarkGcd()
+    {
+        final PatternGenerator generator = new PatternGenerator();
+        BenchmarkHarness.measure("computeGcd", 10000000,
+                new BenchmarkHarness.Benchmark() {
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for(int i = 0; i < operations; i++) {
+                    sink += generator.computeGcd(i & 31, (i >>> 5) & 31);
+                }
+                return sink;
+            }
+        });
+    }
+
+    static void benchmarkModel(final int gridLength)
+    {
+        // a cold build of every table, as on a cache miss
+        BenchmarkHarness.measure("new GridModel " + gridLength + "x"
+                + gridLength,
+                Math.max(100000 / (gridLength * gridLength), 10),
+                new BenchmarkHarness.Benchmark() {
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for(int i = 0; i < operations; i++) {
+                    sink += new GridModel(gridLength).getNodeCount();
+                }
+                return sink;
+            }
+        });
+    }
+
+    static void benchmarkRebuild(final int gridLength)
+    {
+        final PatternGenerator generator = new PatternGenerator();
+        // alternate sizes, setting the same size again is free; both sizes
+        // stay in GridModel's cache, so this times the cache hits and the
+        // generator's own scratch space.  One operation is a switch to each
+        BenchmarkHarness.measure("setGridLength " + gridLength + " <-> "
+                + (gridLength + 1),
+                Math.max(100000 / (gridLength * gridLength), 10),
+                new BenchmarkHarness.Benchmark() {
+            @Override
+            public long run(int operations) {
+                for(int i = 0; i < operations; i++) {
+                    generator.setGridLength(gridLength);
+                    generator.setGridLength(gridLength + 1);
+                }
+                return generator.getGridLength();
+            }
+        });
+    }
+
+    // a walk costs about its length times the nodes left to check
+    private static int operations(int minNodes, int maxNodes)
+    {
+        long work = (long) (minNodes + maxNodes) * (minNodes + maxNodes);
+        return (int) Math.max(WORK_PER_ITERATION / work, 100);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator.bench;
+
+import in.shick.lockpatterngenerator.PatternGenerator;
+import in.shick.lockpatterngenerator.RandomSource;
+
+// Patterns per second through PatternGenerator.getPattern(int[]) for each
+// RandomSource, on a plain JVM:
+//
+//   java -cp out in.shick.lockpatterngenerator.bench.RandomSourceBenchmark
+public class RandomSourceBenchmark
+{
+    public static final int PATTERNS_PER_ITERATION = 1000000;
+    public static final int[][] CONFIGS = {
+        // grid length, min nodes, max nodes
+        { 3, 4, 9 }, { 4, 4, 16 }
+    };
+
+    public static void main(String[] args)
+    {
+        String[] names = { "Standard", "Secure", "SplitMix", "Xoroshiro",
+            "PerThread" };
+        for(int[] config : CONFIGS)
+        {
+            for(String name : names)
+            {
+                final PatternGenerator generator = new PatternGenerator();
+                generator.setGridLength(config[0]);
+                generator.setMinNodes(config[1]);
+                generator.setMaxNodes(config[2]);
+                generator.setRandomSource(createSource(name));
+                final int[] pattern = new int[config[0] * config[0]];
+                double nanos = BenchmarkHarness.measure(name + " " + config[0]
+                        + "x" + config[0] + " " + config[1] + "-" + config[2],
+                        PATTERNS_PER_ITERATION,
+                        new BenchmarkHarness.Benchmark() {
+                    @Override
+                    public long run(int operations) {
+                        long sink = 0;
+                        for(int i = 0; i < operations; i++) {
+                            sink += generator.getPattern(pattern);
+                        }
+                        return sink;
+                    }
+                });
+                System.out.printf("%40s %,12.0f patterns/s%n", "",
+                        1e9 / nanos);
+            }
+        }
+    }
+
+    static RandomSource createSource(String name)
+    {
+        long seed = System.nanoTime();
+        if("Secure".equals(name))
+        {
+            return new RandomSource.Secure();
+        }
+        else if("SplitMix".equals(name))
+        {
+            return new RandomSource.SplitMix(seed);
+        }
+        else if("Xoroshiro".equals(name))
+        {
+            return new RandomSource.Xoroshiro(seed);
+        }
+        else if("PerThread".equals(name))
+        {
+            return new RandomSource.PerThread();
+        }
+        return new RandomSource.Standard();
+    }
+}
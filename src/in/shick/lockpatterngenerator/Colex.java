@@ -0,0 +1,113 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+// Colexicographic ranking of node masks, for the dynamic programs that keep
+// one popcount layer at a time: the C(n, k) masks of k nodes are numbered
+// densely by rank(), visited in rank order from first() with next(), and
+// within a mask a node is known by its slot, its place among the mask's
+// nodes.  Covers every grid LayeredPatternCounter can count.
+class Colex
+{
+    public static final int MAX_NODES = LayeredPatternCounter.MAX_GRID_LENGTH
+        * LayeredPatternCounter.MAX_GRID_LENGTH;
+
+    // sBinomials[n][k] = C(n, k), with room for k up to MAX_NODES + 1 so
+    // rank() and friends need no bounds checks
+    private static final long[][] sBinomials = buildBinomials(MAX_NODES);
+
+    private Colex()
+    {
+    }
+
+    // C(n, k) for 0 <= n <= MAX_NODES and 0 <= k <= MAX_NODES + 1
+    public static long binomial(int n, int k)
+    {
+        return sBinomials[n][k];
+    }
+
+    // position of "mask" among the masks with as many nodes
+    public static long rank(int mask)
+    {
+        long rank = 0;
+        int i = 0;
+        for(int rest = mask; rest != 0; rest &= rest - 1)
+        {
+            rank += sBinomials[Integer.numberOfTrailingZeros(rest)][++i];
+        }
+        return rank;
+    }
+
+    // the mask of "k" of "nodeCount" nodes with the given rank
+    public static int unrank(long rank, int k, int nodeCount)
+    {
+        int mask = 0;
+        int node = nodeCount;
+        for(int i = k; i > 0; i--)
+        {
+            do
+            {
+                node--;
+            }
+            while(sBinomials[node][i] > rank);
+            mask |= 1 << node;
+            rank -= sBinomials[node][i];
+        }
+        return mask;
+    }
+
+    // the mask of "k" nodes with rank 0
+    public static int first(int k)
+    {
+        return (1 << k) - 1;
+    }
+
+    // the mask with as many nodes ranked right after "mask" (Gosper's hack)
+    public static int next(int mask)
+    {
+        int lowest = mask & -mask;
+        int ripple = mask + lowest;
+        return (((ripple ^ mask) >>> 2) / lowest) | ripple;
+    }
+
+    // place of "node" among the nodes of "mask"
+    public static int slot(int mask, int node)
+    {
+        return Integer.bitCount(mask & ((1 << node) - 1));
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static long[][] buildBinomials(int size)
+    {
+        long[][] binomials = new long[size + 1][size + 2];
+        for(int n = 0; n <= size; n++)
+        {
+            binomials[n][0] = 1;
+            for(int k = 1; k <= n; k++)
+            {
+                binomials[n][k] = binomials[n - 1][k - 1]
+                    + binomials[n - 1][k];
+            }
+        }
+        return binomials;
+    }
+}
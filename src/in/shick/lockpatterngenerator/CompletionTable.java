@@ -0,0 +1,104 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+// Number of ways to finish a pattern from each (visited nodes, tail node)
+// state without going past "ceiling" nodes, counting stopping right away.
+// One table serves every length range with that ceiling: the ways to
+// finish within [minNodes, maxNodes] are the maxNodes table's count less
+// the (minNodes - 1) table's for patterns still shorter than minNodes.
+// States are kept one popcount layer at a time, masks ranked in
+// colexicographic order and tails by their place among the mask's nodes,
+// so a table holds the C(n, k) * k counters of each layer k up to the
+// ceiling rather than 2^n * n.
+public class CompletionTable
+{
+    protected final int mNodeCount;
+    protected final int mCeiling;
+    // where each layer starts in mCounts
+    protected final int[] mLayerStarts;
+    protected final long[] mCounts;
+
+    CompletionTable(int gridLength, int ceiling)
+    {
+        int nodeCount = gridLength * gridLength;
+        mNodeCount = nodeCount;
+        mCeiling = Math.max(Math.min(ceiling, nodeCount), 0);
+        mLayerStarts = new int[mCeiling + 2];
+        for(int k = 1; k <= mCeiling; k++)
+        {
+            mLayerStarts[k + 1] =
+                mLayerStarts[k] + (int) Colex.binomial(nodeCount, k) * k;
+        }
+        mCounts = new long[mLayerStarts[mCeiling + 1]];
+
+        long[] betweenMasks = GridModel.get(gridLength).getBetweenMasks();
+        int allNodes = (1 << nodeCount) - 1;
+        // every move adds a node, so going down the layers has all
+        // extensions of a state counted before the state itself
+        for(int k = mCeiling; k >= 1; k--)
+        {
+            int index = mLayerStarts[k];
+            int masks = (int) Colex.binomial(nodeCount, k);
+            for(int visited = Colex.first(k), rank = 0; rank < masks;
+                    rank++, visited = Colex.next(visited))
+            {
+                for(int rest = visited; rest != 0; rest &= rest - 1)
+                {
+                    int tail = Integer.numberOfTrailingZeros(rest);
+                    long ways = 1;
+                    for(int free = k < mCeiling ? allNodes & ~visited : 0;
+                            free != 0; free &= free - 1)
+                    {
+                        int next = Integer.numberOfTrailingZeros(free);
+                        if((betweenMasks[tail * nodeCount + next]
+                                    & ~visited) == 0)
+                        {
+                            ways += get(visited | (1 << next), next);
+                        }
+                    }
+                    mCounts[index++] = ways;
+                }
+            }
+        }
+    }
+
+    // ways to finish the pattern whose nodes are "visited" and whose last
+    // node is "tail"; 0 past the ceiling
+    public long get(int visited, int tail)
+    {
+        int k = Integer.bitCount(visited);
+        if(k > mCeiling)
+        {
+            return 0;
+        }
+        int rank = (int) Colex.rank(visited);
+        return mCounts[mLayerStarts[k] + rank * k
+            + Colex.slot(visited, tail)];
+    }
+
+    //
+    // Accessors
+    //
+
+    public int getCeiling()
+    {
+        return mCeiling;
+    }
+}
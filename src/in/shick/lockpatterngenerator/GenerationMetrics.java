@@ -0,0 +1,343 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters for what pattern generation costs, cheap enough to leave on.
+// Every thread records into its own Recorder with ordered writes (lazySet,
+// no fence or compare-and-set), and snapshot() adds them all up, so
+// recording never contends; a snapshot taken while generators run may be a
+// pattern or two behind.  The counts of threads that have died are folded
+// into one running total, so a stream of short-lived threads doesn't pile
+// up recorders.  One instance can be shared by any number of generators
+// through setMetrics().
+public class GenerationMetrics
+{
+    // reading the clock costs more than the rest of the bookkeeping, so only
+    // one pattern in this many is timed
+    public static final int LATENCY_SAMPLE_INTERVAL = 16;
+    // histogram buckets are powers of two: bucket b counts values in
+    // [2^(b-1), 2^b), bucket 0 counts zeros
+    public static final int BUCKETS = 64;
+
+    // where each counter lives in a Recorder's array
+    static final int PATTERNS = 0, REJECTED_PATTERNS = 1, STEPS = 2,
+           CANDIDATES = 3, REJECTED_CANDIDATES = 4, LATENCY_SAMPLES = 5,
+           LATENCY_TOTAL = 6, CANDIDATE_BUCKETS = 7,
+           LATENCY_BUCKETS = CANDIDATE_BUCKETS + BUCKETS,
+           COUNTERS = LATENCY_BUCKETS + BUCKETS;
+
+    protected final long mStartNanos;
+    // the recorders of live threads, and the totals of dead ones, both
+    // guarded by mRecorders
+    protected final List<Recorder> mRecorders;
+    protected final long[] mRetired;
+    protected final ThreadLocal<Recorder> mRecorder;
+
+    public GenerationMetrics()
+    {
+        mStartNanos = System.nanoTime();
+        mRecorders = new ArrayList<Recorder>();
+        mRetired = new long[COUNTERS];
+        mRecorder = new ThreadLocal<Recorder>() {
+            @Override
+            protected Recorder initialValue() {
+                Recorder recorder = new Recorder(Thread.currentThread());
+                synchronized(mRecorders) {
+                    retireDeadRecorders();
+                    mRecorders.add(recorder);
+                }
+                return recorder;
+            }
+        };
+    }
+
+    // the calling thread's recorder
+    Recorder getRecorder()
+    {
+        return mRecorder.get();
+    }
+
+    // everything recorded so far, on every thread
+    public Snapshot snapshot()
+    {
+        long elapsedNanos = System.nanoTime() - mStartNanos;
+        long[] totals;
+        synchronized(mRecorders)
+        {
+            retireDeadRecorders();
+            totals = mRetired.clone();
+            for(Recorder recorder : mRecorders)
+            {
+                recorder.addTo(totals);
+            }
+        }
+        return new Snapshot(elapsedNanos, totals);
+    }
+
+    //
+    // Helper methods
+    //
+
+    static int bucket(long value)
+    {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    // folds the counts of threads that have finished into mRetired; the
+    // caller holds mRecorders
+    private void retireDeadRecorders()
+    {
+        Iterator<Recorder> recorders = mRecorders.iterator();
+        while(recorders.hasNext())
+        {
+            Recorder recorder = recorders.next();
+            if(!recorder.isOwnerAlive())
+            {
+                recorder.addTo(mRetired);
+                recorders.remove();
+            }
+        }
+    }
+
+    //
+    // Inner classes
+    //
+
+    // One thread's counters, only ever written by that thread.  Each write
+    // is a lazySet of the counter's new value, which keeps other threads
+    // from seeing torn or stale-forever values without the cost of a fence.
+    static class Recorder
+    {
+        private final WeakReference<Thread> mOwner;
+        private final AtomicLongArray mCounters =
+            new AtomicLongArray(COUNTERS);
+        private int mUntilTimed;
+
+        Recorder(Thread owner)
+        {
+            mOwner = new WeakReference<Thread>(owner);
+        }
+
+        // true if the next pattern should be timed
+        boolean shouldTime()
+        {
+            if(--mUntilTimed > 0)
+            {
+                return false;
+            }
+            mUntilTimed = LATENCY_SAMPLE_INTERVAL;
+            return true;
+        }
+
+        // one step of a walk, choosing from "candidates" nodes after ruling
+        // out "rejected" others
+        void recordStep(int candidates, int rejected)
+        {
+            add(STEPS, 1);
+            add(CANDIDATES, candidates);
+            add(REJECTED_CANDIDATES, rejected);
+            add(CANDIDATE_BUCKETS + bucket(candidates), 1);
+        }
+
+        // a finished pattern, "rejected" redraws after it was started and
+        // "nanos" long, or -1 if it was not timed
+        void recordPattern(int rejected, long nanos)
+        {
+            add(PATTERNS, 1);
+            add(REJECTED_PATTERNS, rejected);
+            if(nanos >= 0)
+            {
+                add(LATENCY_SAMPLES, 1);
+                add(LATENCY_TOTAL, nanos);
+                add(LATENCY_BUCKETS + bucket(nanos), 1);
+            }
+        }
+
+        // once this is false the thread has made its last write, and
+        // seeing that is enough for its counts to be read in full
+        boolean isOwnerAlive()
+        {
+            Thread owner = mOwner.get();
+            return owner != null && owner.isAlive();
+        }
+
+        void addTo(long[] totals)
+        {
+            for(int i = 0; i < COUNTERS; i++)
+            {
+                totals[i] += mCounters.get(i);
+            }
+        }
+
+        private void add(int counter, long value)
+        {
+            mCounters.lazySet(counter, mCounters.get(counter) + value);
+        }
+    }
+
+    // Totals at one point in time.  since() turns two snapshots into the
+    // numbers for the time between them.
+    public static class Snapshot
+    {
+        protected long mElapsedNanos;
+        protected long mPatterns;
+        protected long mRejectedPatterns;
+        protected long mSteps;
+        protected long mCandidates;
+        protected long mRejectedCandidates;
+        protected long[] mCandidateBuckets = new long[BUCKETS];
+        protected long[] mLatencyBuckets = new long[BUCKETS];
+        protected long mLatencySamples;
+        protected long mLatencyTotal;
+
+        protected Snapshot(long elapsedNanos)
+        {
+            mElapsedNanos = elapsedNanos;
+        }
+
+        // from counters laid out as in a Recorder
+        protected Snapshot(long elapsedNanos, long[] totals)
+        {
+            mElapsedNanos = elapsedNanos;
+            mPatterns = totals[PATTERNS];
+            mRejectedPatterns = totals[REJECTED_PATTERNS];
+            mSteps = totals[STEPS];
+            mCandidates = totals[CANDIDATES];
+            mRejectedCandidates = totals[REJECTED_CANDIDATES];
+            mLatencySamples = totals[LATENCY_SAMPLES];
+            mLatencyTotal = totals[LATENCY_TOTAL];
+            System.arraycopy(totals, CANDIDATE_BUCKETS, mCandidateBuckets, 0,
+                    BUCKETS);
+            System.arraycopy(totals, LATENCY_BUCKETS, mLatencyBuckets, 0,
+                    BUCKETS);
+        }
+
+        // what happened between "earlier" and this one
+        public Snapshot since(Snapshot earlier)
+        {
+            Snapshot delta =
+                new Snapshot(mElapsedNanos - earlier.mElapsedNanos);
+            delta.mPatterns = mPatterns - earlier.mPatterns;
+            delta.mRejectedPatterns =
+                mRejectedPatterns - earlier.mRejectedPatterns;
+            delta.mSteps = mSteps - earlier.mSteps;
+            delta.mCandidates = mCandidates - earlier.mCandidates;
+            delta.mRejectedCandidates =
+                mRejectedCandidates - earlier.mRejectedCandidates;
+            delta.mLatencySamples = mLatencySamples - earlier.mLatencySamples;
+            delta.mLatencyTotal = mLatencyTotal - earlier.mLatencyTotal;
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                delta.mCandidateBuckets[i] =
+                    mCandidateBuckets[i] - earlier.mCandidateBuckets[i];
+                delta.mLatencyBuckets[i] =
+                    mLatencyBuckets[i] - earlier.mLatencyBuckets[i];
+            }
+            return delta;
+        }
+
+        public long getElapsedNanos()
+        {
+            return mElapsedNanos;
+        }
+
+        public long getPatterns()
+        {
+            return mPatterns;
+        }
+
+        public double getPatternsPerSecond()
+        {
+            return mElapsedNanos <= 0 ? 0 : mPatterns * 1e9 / mElapsedNanos;
+        }
+
+        // patterns, or walks that got stuck, thrown away because of a
+        // constraint or filter
+        public long getRejectedPatterns()
+        {
+            return mRejectedPatterns;
+        }
+
+        // walk steps, one per node after the first
+        public long getSteps()
+        {
+            return mSteps;
+        }
+
+        public double getMeanCandidates()
+        {
+            return mSteps == 0 ? 0 : (double) mCandidates / mSteps;
+        }
+
+        // free nodes per step that could not be chosen, because they lay
+        // past an unused node or a constraint ruled them out
+        public double getMeanRejectedCandidates()
+        {
+            return mSteps == 0 ? 0 : (double) mRejectedCandidates / mSteps;
+        }
+
+        public double getMeanLatencyNanos()
+        {
+            return mLatencySamples == 0
+                ? 0 : (double) mLatencyTotal / mLatencySamples;
+        }
+
+        // Upper bound of the bucket holding the given fraction of timed
+        // patterns, so within a factor of two of the true percentile
+        public long getLatencyPercentileNanos(double fraction)
+        {
+            return percentile(mLatencyBuckets, mLatencySamples, fraction);
+        }
+
+        // steps whose candidate count fell in each power-of-two bucket
+        public long[] getCandidateHistogram()
+        {
+            return mCandidateBuckets.clone();
+        }
+
+        // timed patterns whose latency fell in each power-of-two bucket of
+        // nanoseconds
+        public long[] getLatencyHistogram()
+        {
+            return mLatencyBuckets.clone();
+        }
+
+        private static long percentile(long[] buckets, long total,
+                double fraction)
+        {
+            long wanted = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                seen += buckets[i];
+                if(seen >= wanted && seen > 0)
+                {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -34,6 +34,7 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
@@ -53,12 +54,17 @@ public class GeneratorActivity extends BaseActivity
     protected Button mGenerateButton;
     protected Button mSecuritySettingsButton;
     protected ToggleButton mPracticeToggle;
+    protected TextView mEntropyText;
     protected PatternGenerator mGenerator;
+    protected PatternPrefetcher mPrefetcher;
     protected int mGridLength;
     protected int mPatternMin;
     protected int mPatternMax;
     protected String mHighlightMode;
     protected boolean mTactileFeedback;
+    // bumped on every entropy update, so a worker that finishes after the
+    // settings changed again leaves the text alone
+    protected int mEntropyRequest;
     private List<Point> mEasterEggPattern;
 
     @SuppressWarnings("unchecked")
@@ -70,6 +76,7 @@ public class GeneratorActivity extends BaseActivity
         // non-UI setup
 
         mGenerator = new PatternGenerator();
+        mPrefetcher = new PatternPrefetcher(PatternPrefetcher.DEFAULT_CAPACITY);
         // if the EmergencyExit was used to bail, tell the user its OK
         if(mPreferences.getBoolean("exited_hard", Defaults.EXITED_HARD))
         {
@@ -105,12 +112,19 @@ public class GeneratorActivity extends BaseActivity
         mSecuritySettingsButton =
             (Button) findViewById(R.id.security_settings_button);
         mPracticeToggle = (ToggleButton) findViewById(R.id.practice_toggle);
+        mEntropyText = (TextView) findViewById(R.id.entropy_text);
 
         // set up views
         mGenerateButton.setOnClickListener(new Button.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mPatternView.setPattern(mGenerator.getPattern());
+                List<Point> pattern = mPrefetcher.poll();
+                if(pattern == null) {
+                    // nothing made in the background yet
+                    waitForPattern();
+                    return;
+                }
+                mPatternView.setPattern(pattern);
                 mPatternView.invalidate();
             }
         });
@@ -176,6 +190,15 @@ public class GeneratorActivity extends BaseActivity
         super.onResume();
         
         updateFromPrefs();
+        mPrefetcher.start();
+    }
+
+    @Override
+    protected void onPause()
+    {
+        super.onPause();
+
+        mPrefetcher.stop();
     }
 
     @Override
@@ -378,6 +401,108 @@ public class GeneratorActivity extends BaseActivity
         {
             setTactileFeedback(tactileFeedback);
         }
+        updateEntropy();
+        mPrefetcher.configure(mGenerator);
+    }
+
+    // Waits off the UI thread for the prefetcher's next pattern, with the
+    // generate button disabled meanwhile.  Starting the prefetcher again
+    // first brings it back if generating failed before.
+    private void waitForPattern()
+    {
+        mGenerateButton.setEnabled(false);
+        mPrefetcher.start();
+        new Thread(new Runnable() {
+            public void run() {
+                List<Point> pattern = null;
+                RuntimeException failure = null;
+                try {
+                    pattern = mPrefetcher.take();
+                }
+                catch(InterruptedException e) {
+                    // leave the pattern as it is
+                }
+                catch(RuntimeException e) {
+                    failure = e;
+                }
+                final List<Point> taken = pattern;
+                final RuntimeException failed = failure;
+                runOnUiThread(new Runnable() {
+                    public void run() {
+                        mGenerateButton.setEnabled(
+                            !mPracticeToggle.isChecked());
+                        if(taken != null) {
+                            mPatternView.setPattern(taken);
+                            mPatternView.invalidate();
+                        }
+                        else if(failed != null) {
+                            Toast.makeText(GeneratorActivity.this,
+                                    getString(R.string.generate_failure),
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        }, "pattern-wait").start();
+    }
+
+    // the first report for a grid takes a while, so it is worked out on a
+    // worker thread; after that any length range is cheap
+    private void updateEntropy()
+    {
+        final int request = ++mEntropyRequest;
+        final int gridLength = mGridLength;
+        final int patternMin = mPatternMin;
+        final int patternMax = mPatternMax;
+        if(!PatternEntropy.isSupported(gridLength, patternMin, patternMax))
+        {
+            mEntropyText.setText(getString(R.string.entropy_unavailable));
+            return;
+        }
+        if(PatternEntropy.isReady(gridLength))
+        {
+            showEntropy(
+                    PatternEntropy.get(gridLength, patternMin, patternMax));
+            return;
+        }
+        // workers for the same grid share one build, and if it fails
+        // (say, out of memory) the report is just left out
+        mEntropyText.setText(getString(R.string.entropy_computing));
+        new Thread(new Runnable() {
+            public void run() {
+                PatternEntropy result = null;
+                try {
+                    result = PatternEntropy.get(gridLength, patternMin,
+                            patternMax);
+                }
+                catch(RuntimeException e) {
+                    // shown as unavailable
+                }
+                catch(OutOfMemoryError e) {
+                    // shown as unavailable
+                }
+                final PatternEntropy entropy = result;
+                runOnUiThread(new Runnable() {
+                    public void run() {
+                        if(request == mEntropyRequest) {
+                            showEntropy(entropy);
+                        }
+                    }
+                });
+            }
+        }, "PatternEntropy").start();
+    }
+    // null for no report
+    private void showEntropy(PatternEntropy entropy)
+    {
+        if(entropy == null)
+        {
+            mEntropyText.setText(getString(R.string.entropy_unavailable));
+            return;
+        }
+        mEntropyText.setText(getString(R.string.entropy_report,
+                    entropy.getWalkBits(), entropy.getUniformBits(),
+                    1.0 / entropy.getWalkMaxProbability()));
     }
 
     private void setGridLength(int length)
@@ -0,0 +1,294 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import in.shick.lockpatterngenerator.external.Point;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Everything about a grid that only depends on its length: the nodes,
+// index <-> coordinate maps, which nodes lie between which, and which can be
+// reached directly.  Models never change once built, so one instance per
+// length is shared through get() by every generator, counter and view.
+// Node indices are row-major, y * length + x.
+public class GridModel
+{
+    // the rotations and reflections of a square, see getSymmetries()
+    public static final int SYMMETRIES = 8;
+
+    // enough for flipping between a few sizes in the settings
+    private static final int CACHE_SIZE = 4;
+    private static final Map<Integer, GridModel> sModels =
+        new LinkedHashMap<Integer, GridModel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, GridModel> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    protected final int mGridLength;
+    protected final int mNodeCount;
+    protected final int[] mXs;
+    protected final int[] mYs;
+    // nodes lying strictly between each ordered pair of nodes as bitmasks,
+    // indexed by from * nodeCount + to, only for grids of up to 64 nodes
+    protected final long[] mBetweenMasks;
+    // nodes reachable from each node without passing over another, only for
+    // grids of up to 64 nodes
+    protected final long[] mAdjacency;
+    // gcd of every |dx|, |dy| pair, indexed by |dx| * length + |dy|, for
+    // stepping between nodes on larger grids
+    protected final int[] mGcds;
+    // where each symmetry sends each node, indexed by
+    // symmetry * nodeCount + node
+    protected final int[] mSymmetries;
+
+    // builds a model of its own, outside the cache; get() is the one to
+    // use unless timing the build
+    public GridModel(int gridLength)
+    {
+        mGridLength = gridLength;
+        mNodeCount = gridLength * gridLength;
+        mXs = new int[mNodeCount];
+        mYs = new int[mNodeCount];
+        for(int node = 0; node < mNodeCount; node++)
+        {
+            mXs[node] = node % gridLength;
+            mYs[node] = node / gridLength;
+        }
+        mGcds = buildGcds(gridLength);
+        mBetweenMasks = buildBetweenMasks();
+        mAdjacency = buildAdjacency();
+        mSymmetries = buildSymmetries();
+    }
+
+    public static GridModel get(int gridLength)
+    {
+        if(gridLength < 0)
+        {
+            throw new IllegalArgumentException(
+                    "negative grid length: " + gridLength);
+        }
+        synchronized(sModels)
+        {
+            GridModel model = sModels.get(gridLength);
+            if(model == null)
+            {
+                model = new GridModel(gridLength);
+                sModels.put(gridLength, model);
+            }
+            return model;
+        }
+    }
+
+    public int index(int x, int y)
+    {
+        return y * mGridLength + x;
+    }
+
+    public int getX(int node)
+    {
+        return mXs[node];
+    }
+
+    public int getY(int node)
+    {
+        return mYs[node];
+    }
+
+    // A new Point for "node".  Points are mutable and models are shared, so
+    // none is ever kept here; they are also only made when asked for, so the
+    // rest works without Android's Parcel around.
+    public Point getPoint(int node)
+    {
+        return new Point(mXs[node], mYs[node]);
+    }
+
+    // every node in row-major order, as new Points the caller may change
+    public List<Point> getNodes()
+    {
+        List<Point> nodes = new ArrayList<Point>(mNodeCount);
+        for(int node = 0; node < mNodeCount; node++)
+        {
+            nodes.add(getPoint(node));
+        }
+        return nodes;
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+
+    public int getNodeCount()
+    {
+        return mNodeCount;
+    }
+
+    // Bitmask of the nodes strictly between each ordered pair of nodes,
+    // indexed by from * nodeCount + to, or null past 64 nodes.  Shared, so
+    // it must not be modified.
+    public long[] getBetweenMasks()
+    {
+        return mBetweenMasks;
+    }
+
+    // bitmask of the nodes "node" has a clear line to, or 0 past 64 nodes
+    public long getAdjacency(int node)
+    {
+        return mAdjacency == null ? 0 : mAdjacency[node];
+    }
+
+    // gcd of |dx| and |dy|, i.e. one more than the number of nodes on the
+    // line between two nodes that far apart
+    public int getGcd(int dx, int dy)
+    {
+        return mGcds[Math.abs(dx) * mGridLength + Math.abs(dy)];
+    }
+
+    // the table behind getGcd(), shared, so it must not be modified
+    public int[] getGcds()
+    {
+        return mGcds;
+    }
+
+    // Node permutation of one of the grid's symmetries: 0 is the identity,
+    // 1 to 3 turn a quarter, half and three quarters, 4 and 5 mirror left
+    // to right and top to bottom, 6 and 7 mirror in the two diagonals.
+    // Indexed by symmetry * nodeCount + node; shared, so it must not be
+    // modified.
+    public int[] getSymmetries()
+    {
+        return mSymmetries;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private int[] buildSymmetries()
+    {
+        int nodeCount = mNodeCount;
+        int last = mGridLength - 1;
+        int[] symmetries = new int[SYMMETRIES * nodeCount];
+        for(int node = 0; node < nodeCount; node++)
+        {
+            int x = mXs[node];
+            int y = mYs[node];
+            symmetries[node] = node;
+            symmetries[nodeCount + node] = index(last - y, x);
+            symmetries[2 * nodeCount + node] = index(last - x, last - y);
+            symmetries[3 * nodeCount + node] = index(y, last - x);
+            symmetries[4 * nodeCount + node] = index(last - x, y);
+            symmetries[5 * nodeCount + node] = index(x, last - y);
+            symmetries[6 * nodeCount + node] = index(y, x);
+            symmetries[7 * nodeCount + node] = index(last - y, last - x);
+        }
+        return symmetries;
+    }
+
+    private long[] buildBetweenMasks()
+    {
+        int nodeCount = mNodeCount;
+        if(nodeCount > 64)
+        {
+            return null;
+        }
+        long[] betweenMasks = new long[nodeCount * nodeCount];
+        for(int from = 0; from < nodeCount; from++)
+        {
+            for(int to = 0; to < nodeCount; to++)
+            {
+                int dx = mXs[to] - mXs[from];
+                int dy = mYs[to] - mYs[from];
+                int gcd = getGcd(dx, dy);
+                int step = gcd == 0 ? 0 : dy / gcd * mGridLength + dx / gcd;
+                for(int j = 1; j < gcd; j++)
+                {
+                    betweenMasks[from * nodeCount + to] |=
+                        1L << (from + step * j);
+                }
+            }
+        }
+        return betweenMasks;
+    }
+
+    private long[] buildAdjacency()
+    {
+        if(mBetweenMasks == null)
+        {
+            return null;
+        }
+        int nodeCount = mNodeCount;
+        long[] adjacency = new long[nodeCount];
+        for(int from = 0; from < nodeCount; from++)
+        {
+            for(int to = 0; to < nodeCount; to++)
+            {
+                if(to != from && mBetweenMasks[from * nodeCount + to] == 0)
+                {
+                    adjacency[from] |= 1L << to;
+                }
+            }
+        }
+        return adjacency;
+    }
+
+    private static int[] buildGcds(int length)
+    {
+        int[] gcds = new int[length * length];
+        for(int dx = 0; dx < length; dx++)
+        {
+            for(int dy = 0; dy < length; dy++)
+            {
+                gcds[dx * length + dy] = gcd(dx, dy);
+            }
+        }
+        return gcds;
+    }
+
+    static int gcd(int a, int b)
+    /* Implementation taken from
+     * http://en.literateprograms.org/Euclidean_algorithm_(Java)
+     * Accessed on 12/28/10
+     */
+    {
+        if(b > a)
+        {
+            int temp = a;
+            a = b;
+            b = temp;
+        }
+        while(b != 0)
+        {
+            int m = a % b;
+            a = b;
+            b = m;
+        }
+        return a;
+    }
+}
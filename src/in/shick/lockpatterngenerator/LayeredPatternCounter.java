@@ -0,0 +1,419 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+// Exact pattern counts for grids past PatternCounter's reach.  The same
+// (visited nodes, tail node) dynamic program is run one popcount layer at a
+// time: layer k only holds the C(n, k) masks of k nodes, ranked in
+// colexicographic order, times their k possible tails, and is worked out
+// from layer k - 1 alone.  The two layers live outside the heap, in direct
+// buffers or in files mapped from a scratch directory, as 128-bit counters
+// since 5x5 paths overflow a long.  Each worker fills its own run of masks
+// by pulling from the previous layer, so nothing is written by two threads.
+// A 5x5 grid needs two layers of about 1 GB each.  Scratch files are
+// unlinked as soon as they are mapped: on POSIX systems the pages stay
+// until the buffer is collected and nothing is left behind even if the
+// process dies, while where a mapped file can't be deleted (Windows) it is
+// tried again once counting ends and when the VM exits.
+public class LayeredPatternCounter
+{
+    public static final int MAX_GRID_LENGTH = 5;
+    // masks handed to a worker at a time
+    public static final int CHUNK_MASKS = 16384;
+
+    // pattern counts indexed by length, memoized per grid length; the lock
+    // is only held to find or publish a grid's task, never while counting
+    private static final Map<Integer, FutureTask<BigInteger[]>> sCounts =
+        new HashMap<Integer, FutureTask<BigInteger[]>>();
+
+    protected int mParallelism;
+    protected File mScratchDirectory;
+
+    // layers go into direct buffers if "scratchDirectory" is null, or else
+    // into temporary files there
+    public LayeredPatternCounter(int parallelism, File scratchDirectory)
+    {
+        if(parallelism < 1)
+        {
+            throw new IllegalArgumentException(
+                    "parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+        mScratchDirectory = scratchDirectory;
+    }
+
+    public static boolean isSupported(int gridLength)
+    {
+        return gridLength >= 0 && gridLength <= MAX_GRID_LENGTH;
+    }
+
+    // Number of valid patterns of every length, indexed by length.  The
+    // first caller for a grid counts it on its own thread; callers for the
+    // same grid meanwhile wait for that count, others are not held up.
+    public BigInteger[] getCounts(final int gridLength)
+        throws IOException, InterruptedException
+    {
+        if(!isSupported(gridLength))
+        {
+            throw new IllegalArgumentException(
+                    "grid too large to count exactly: " + gridLength);
+        }
+        while(true)
+        {
+            FutureTask<BigInteger[]> task;
+            boolean owner = false;
+            synchronized(sCounts)
+            {
+                task = sCounts.get(gridLength);
+                if(task == null)
+                {
+                    task = new FutureTask<BigInteger[]>(
+                            new Callable<BigInteger[]>() {
+                        @Override
+                        public BigInteger[] call() throws Exception {
+                            return computeCounts(gridLength);
+                        }
+                    });
+                    sCounts.put(gridLength, task);
+                    owner = true;
+                }
+            }
+            if(owner)
+            {
+                task.run();
+            }
+            try
+            {
+                return task.get().clone();
+            }
+            catch(ExecutionException e)
+            {
+                // forget the failed count so the grid can be tried again,
+                // by this caller if it was someone else's that failed
+                synchronized(sCounts)
+                {
+                    if(sCounts.get(gridLength) == task)
+                    {
+                        sCounts.remove(gridLength);
+                    }
+                }
+                if(owner)
+                {
+                    rethrow(e.getCause());
+                }
+            }
+        }
+    }
+
+    // number of valid patterns with lengths in [minNodes, maxNodes]
+    public BigInteger count(int gridLength, int minNodes, int maxNodes)
+        throws IOException, InterruptedException
+    {
+        BigInteger[] counts = getCounts(gridLength);
+        BigInteger total = BigInteger.ZERO;
+        for(int length = Math.max(minNodes, 0);
+                length <= maxNodes && length < counts.length; length++)
+        {
+            total = total.add(counts[length]);
+        }
+        return total;
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public int getParallelism()
+    {
+        return mParallelism;
+    }
+
+    public File getScratchDirectory()
+    {
+        return mScratchDirectory;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private BigInteger[] computeCounts(int gridLength)
+        throws IOException, InterruptedException
+    {
+        int nodeCount = gridLength * gridLength;
+        BigInteger[] counts = new BigInteger[nodeCount + 1];
+        counts[0] = BigInteger.ZERO;
+        if(nodeCount == 0)
+        {
+            return counts;
+        }
+        long largest = 0;
+        for(int k = 1; k <= nodeCount; k++)
+        {
+            largest = Math.max(largest, Colex.binomial(nodeCount, k) * k);
+        }
+        List<File> files = new ArrayList<File>();
+        ExecutorService executor = Executors.newFixedThreadPool(mParallelism,
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pattern-counter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try
+        {
+            LongBuffer previous = allocate(largest * 2, files);
+            LongBuffer current = allocate(largest * 2, files);
+            // one path of each single node
+            for(int node = 0; node < nodeCount; node++)
+            {
+                previous.put(node * 2, 0);
+                previous.put(node * 2 + 1, 1);
+            }
+            counts[1] = BigInteger.valueOf(nodeCount);
+            long[] betweenMasks = GridModel.get(gridLength).getBetweenMasks();
+            for(int k = 2; k <= nodeCount; k++)
+            {
+                long masks = Colex.binomial(nodeCount, k);
+                List<Future<long[]>> chunks = new ArrayList<Future<long[]>>();
+                for(long first = 0; first < masks; first += CHUNK_MASKS)
+                {
+                    chunks.add(executor.submit(new LayerTask(nodeCount, k,
+                                    first, Math.min(CHUNK_MASKS, masks - first),
+                                    betweenMasks, previous.duplicate(),
+                                    current.duplicate())));
+                }
+                BigInteger total = BigInteger.ZERO;
+                for(Future<long[]> chunk : chunks)
+                {
+                    total = total.add(toBigInteger(get(chunk)));
+                }
+                counts[k] = total;
+                LongBuffer swap = previous;
+                previous = current;
+                current = swap;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            for(File file : files)
+            {
+                file.delete();
+            }
+        }
+        return counts;
+    }
+
+    // off-heap room for "longs" longs
+    private LongBuffer allocate(long longs, List<File> files)
+        throws IOException
+    {
+        if(longs * 8 > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("layer too large: "
+                    + longs * 8 + " bytes");
+        }
+        int bytes = (int) (longs * 8);
+        if(mScratchDirectory == null)
+        {
+            return ByteBuffer.allocateDirect(bytes)
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        File file = File.createTempFile("layer", ".bin", mScratchDirectory);
+        file.deleteOnExit();
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try
+        {
+            // the mapping stays valid after the channel is closed and, on
+            // POSIX systems, after the file is unlinked
+            return access.getChannel()
+                .map(FileChannel.MapMode.READ_WRITE, 0, bytes)
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        finally
+        {
+            access.close();
+            if(!file.delete())
+            {
+                files.add(file);
+            }
+        }
+    }
+
+    private static long[] get(Future<long[]> chunk)
+        throws IOException, InterruptedException
+    {
+        try
+        {
+            return chunk.get();
+        }
+        catch(ExecutionException e)
+        {
+            rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    // throws what a task failed with as whichever of getCounts()' own
+    // exceptions it is
+    private static void rethrow(Throwable cause)
+        throws IOException, InterruptedException
+    {
+        if(cause instanceof IOException)
+        {
+            throw (IOException) cause;
+        }
+        if(cause instanceof InterruptedException)
+        {
+            throw (InterruptedException) cause;
+        }
+        if(cause instanceof RuntimeException)
+        {
+            throw (RuntimeException) cause;
+        }
+        if(cause instanceof Error)
+        {
+            throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+    }
+
+    // 128-bit value from {high, low} words
+    private static BigInteger toBigInteger(long[] value)
+    {
+        return BigInteger.valueOf(value[0]).shiftLeft(64)
+            .add(BigInteger.valueOf(value[1] >>> 1).shiftLeft(1))
+            .add(BigInteger.valueOf(value[1] & 1));
+    }
+
+    //
+    // Inner classes
+    //
+
+    // Fills a run of layer k from layer k - 1 and returns the sum of what
+    // it wrote.  Counter (rank, slot) is at 2 * (rank * k + slot), high
+    // word first, where slot is the tail's place among the mask's nodes.
+    private static class LayerTask implements Callable<long[]>
+    {
+        private final int mNodeCount;
+        private final int mLayer;
+        private final long mFirst;
+        private final long mCount;
+        private final long[] mBetweenMasks;
+        private final LongBuffer mPrevious;
+        private final LongBuffer mCurrent;
+
+        public LayerTask(int nodeCount, int layer, long first, long count,
+                long[] betweenMasks, LongBuffer previous, LongBuffer current)
+        {
+            mNodeCount = nodeCount;
+            mLayer = layer;
+            mFirst = first;
+            mCount = count;
+            mBetweenMasks = betweenMasks;
+            mPrevious = previous;
+            mCurrent = current;
+        }
+
+        @Override
+        public long[] call()
+        {
+            int k = mLayer;
+            int[] nodes = new int[k];
+            // below[s] is the rank contribution of the nodes before slot s,
+            // above[s] that of the nodes after it once slot s is removed
+            long[] below = new long[k + 1];
+            long[] above = new long[k + 1];
+            long totalHigh = 0;
+            long totalLow = 0;
+            int mask = Colex.unrank(mFirst, k, mNodeCount);
+            for(long rank = mFirst; rank < mFirst + mCount; rank++)
+            {
+                for(int s = 0, rest = mask; s < k; s++)
+                {
+                    nodes[s] = Integer.numberOfTrailingZeros(rest);
+                    rest &= rest - 1;
+                    below[s + 1] = below[s] + Colex.binomial(nodes[s], s + 1);
+                }
+                above[k - 1] = 0;
+                for(int s = k - 1; s > 0; s--)
+                {
+                    above[s - 1] = above[s] + Colex.binomial(nodes[s], s);
+                }
+                for(int s = 0; s < k; s++)
+                {
+                    int tail = nodes[s];
+                    int visited = mask & ~(1 << tail);
+                    long base = (below[s] + above[s]) * (k - 1);
+                    long high = 0;
+                    long low = 0;
+                    for(int t = 0; t < k - 1; t++)
+                    {
+                        int previous = nodes[t < s ? t : t + 1];
+                        if((mBetweenMasks[previous * mNodeCount + tail]
+                                    & ~visited) != 0)
+                        {
+                            continue;
+                        }
+                        int index = (int) (base + t) * 2;
+                        long addLow = mPrevious.get(index + 1);
+                        low += addLow;
+                        high += mPrevious.get(index)
+                            + (lessUnsigned(low, addLow) ? 1 : 0);
+                    }
+                    int index = (int) (rank * k + s) * 2;
+                    mCurrent.put(index, high);
+                    mCurrent.put(index + 1, low);
+                    totalLow += low;
+                    totalHigh += high + (lessUnsigned(totalLow, low) ? 1 : 0);
+                }
+                mask = Colex.next(mask);
+            }
+            return new long[] {totalHigh, totalLow};
+        }
+
+        private static boolean lessUnsigned(long a, long b)
+        {
+            return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+        }
+    }
+}
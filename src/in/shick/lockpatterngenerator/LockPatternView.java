@@ -51,6 +51,7 @@ public class LockPatternView extends View
 
     protected int mLengthPx;
     protected int mLengthNodes;
+    protected GridModel mGridModel;
     protected int mCellLength;
     protected NodeDrawable[][] mNodeDrawables;
     protected Paint mEdgePaint;
@@ -77,6 +78,7 @@ public class LockPatternView extends View
 
         mLengthPx = DEFAULT_LENGTH_PX;
         mLengthNodes = DEFAULT_LENGTH_NODES;
+        mGridModel = GridModel.get(mLengthNodes);
         mNodeDrawables = new NodeDrawable[0][0];
         mCurrentPattern = Collections.emptyList();
         mHighlightMode = new NoHighlight();
@@ -110,20 +112,19 @@ public class LockPatternView extends View
         int cellHalf = mCellLength / 2;
 
         long buildStart = System.currentTimeMillis();
-        for(int y = 0; y < mLengthNodes; y++)
+        for(int node = 0; node < mGridModel.getNodeCount(); node++)
         {
-            for(int x = 0; x < mLengthNodes; x++)
+            // if just building the drawables is taking too long, bail!
+            if(System.currentTimeMillis() - buildStart
+                    >= BUILD_TIMEOUT_MILLIS)
             {
-                // if just building the drawables is taking too long, bail!
-                if(System.currentTimeMillis() - buildStart
-                        >= BUILD_TIMEOUT_MILLIS)
-                {
-                    EmergencyExit.clearAndBail(getContext());
-                }
-                Point center = new Point(x * mCellLength + cellHalf,
-                        y * mCellLength + cellHalf);
-                mNodeDrawables[x][y] = new NodeDrawable(nodeDiameter, center);
+                EmergencyExit.clearAndBail(getContext());
             }
+            int x = mGridModel.getX(node);
+            int y = mGridModel.getY(node);
+            Point center = new Point(x * mCellLength + cellHalf,
+                    y * mCellLength + cellHalf);
+            mNodeDrawables[x][y] = new NodeDrawable(nodeDiameter, center);
         }
 
         // re-highlight nodes if not in practice
@@ -376,6 +377,7 @@ public class LockPatternView extends View
     public void setGridLength(int length)
     {
         mLengthNodes = length;
+        mGridModel = GridModel.get(length);
         mCurrentPattern = Collections.emptyList();
         buildDrawables();
     }
@@ -0,0 +1,281 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Bulk generation spread over a pool of worker threads.  The batch is cut
+// into fixed-size chunks and every chunk gets its own seed derived from the
+// master seed, so the output only depends on the seed and never on how many
+// threads there are or how the chunks got scheduled.  Each chunk writes
+// straight into its own slice of the output, sized for patterns of the
+// greatest length, and the chunks are then closed up in order.
+public class ParallelPatternGenerator
+{
+    public static final int CHUNK_PATTERNS = 4096;
+    protected int mGridLength;
+    protected int mMinNodes;
+    protected int mMaxNodes;
+    protected int mParallelism;
+    protected GenerationMetrics mMetrics;
+    protected ExecutorService mExecutor;
+    protected BlockingQueue<PatternGenerator> mGenerators;
+
+    public ParallelPatternGenerator(int parallelism)
+    {
+        if(parallelism < 1)
+        {
+            throw new IllegalArgumentException(
+                    "parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+        mGenerators = new ArrayBlockingQueue<PatternGenerator>(parallelism);
+        for(int i = 0; i < parallelism; i++)
+        {
+            mGenerators.add(new PatternGenerator());
+        }
+        mExecutor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pattern-generator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Writes "count" patterns into "out" in the same length-prefixed layout
+    // as PatternGenerator.generateBatch(), which is also how much room "out"
+    // needs: count * (1 + getMaxNodes()) ints
+    public void generateBatch(long seed, int count, IntBuffer out)
+        throws InterruptedException
+    {
+        generateBatch(seed, 0, count, out);
+    }
+    // Same, but starting at chunk "firstChunk" of the sequence for "seed",
+    // so a run too big for one buffer can be made in pieces of whole chunks
+    // that together match a single batch
+    public void generateBatch(long seed, int firstChunk, int count,
+            IntBuffer out)
+        throws InterruptedException
+    {
+        int recordMax = 1 + Math.max(
+                Math.min(mMaxNodes, mGridLength * mGridLength), 0);
+        if((long) count * recordMax > out.remaining())
+        {
+            throw new BufferOverflowException();
+        }
+        int base = out.position();
+        List<Future<Integer>> chunks = new ArrayList<Future<Integer>>();
+        for(int first = 0, chunk = firstChunk; first < count;
+                first += CHUNK_PATTERNS, chunk++)
+        {
+            int patterns = Math.min(CHUNK_PATTERNS, count - first);
+            IntBuffer slice = out.duplicate();
+            slice.limit(base + (first + patterns) * recordMax);
+            slice.position(base + first * recordMax);
+            chunks.add(mExecutor.submit(new ChunkTask(chunkSeed(seed, chunk),
+                            patterns, slice.slice())));
+        }
+        try
+        {
+            for(int i = 0; i < chunks.size(); i++)
+            {
+                int written = chunks.get(i).get();
+                moveDown(out, base + i * CHUNK_PATTERNS * recordMax,
+                        out.position(), written);
+                out.position(out.position() + written);
+            }
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            for(Future<Integer> chunk : chunks)
+            {
+                chunk.cancel(true);
+            }
+        }
+    }
+    // same as above, with ints stored in the byte order of "out"
+    public void generateBatch(long seed, int count, ByteBuffer out)
+        throws InterruptedException
+    {
+        IntBuffer view = out.asIntBuffer();
+        generateBatch(seed, count, view);
+        out.position(out.position() + view.position() * 4);
+    }
+
+    public void shutdown()
+    {
+        mExecutor.shutdownNow();
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public void setGridLength(int length)
+    {
+        mGridLength = length;
+    }
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+
+    public void setMinNodes(int nodes)
+    {
+        mMinNodes = nodes;
+    }
+    public int getMinNodes()
+    {
+        return mMinNodes;
+    }
+
+    public void setMaxNodes(int nodes)
+    {
+        mMaxNodes = nodes;
+    }
+    public int getMaxNodes()
+    {
+        return mMaxNodes;
+    }
+
+    // shared by every worker, see PatternGenerator.setMetrics()
+    public void setMetrics(GenerationMetrics metrics)
+    {
+        mMetrics = metrics;
+    }
+    public GenerationMetrics getMetrics()
+    {
+        return mMetrics;
+    }
+
+    public int getParallelism()
+    {
+        return mParallelism;
+    }
+
+    //
+    // Helper methods
+    //
+
+    // seed for the "chunk"th chunk, the same way SplittableRandom derives
+    // the seeds of its splits
+    public static long chunkSeed(long seed, int chunk)
+    {
+        return RandomSource.SplitMix.mix(
+                seed + (chunk + 1L) * RandomSource.SplitMix.GOLDEN_GAMMA);
+    }
+
+    // copies "length" ints from "from" to "to" within "buffer", where "to"
+    // is never after "from"
+    private static void moveDown(IntBuffer buffer, int from, int to,
+            int length)
+    {
+        if(from == to)
+        {
+            return;
+        }
+        if(buffer.hasArray())
+        {
+            int offset = buffer.arrayOffset();
+            System.arraycopy(buffer.array(), offset + from,
+                    buffer.array(), offset + to, length);
+            return;
+        }
+        for(int i = 0; i < length; i++)
+        {
+            buffer.put(to + i, buffer.get(from + i));
+        }
+    }
+
+    //
+    // Inner classes
+    //
+
+    private class ChunkTask implements Callable<Integer>
+    {
+        private final long mSeed;
+        private final int mCount;
+        private final IntBuffer mOut;
+        private final int mGridLength;
+        private final int mMinNodes;
+        private final int mMaxNodes;
+        private final GenerationMetrics mMetrics;
+
+        public ChunkTask(long seed, int count, IntBuffer out)
+        {
+            mSeed = seed;
+            mCount = count;
+            mOut = out;
+            // snapshot the configuration in case it changes mid-batch
+            mGridLength = ParallelPatternGenerator.this.mGridLength;
+            mMinNodes = ParallelPatternGenerator.this.mMinNodes;
+            mMaxNodes = ParallelPatternGenerator.this.mMaxNodes;
+            mMetrics = ParallelPatternGenerator.this.mMetrics;
+        }
+
+        @Override
+        public Integer call() throws InterruptedException
+        {
+            PatternGenerator generator = mGenerators.take();
+            try
+            {
+                generator.setGridLength(mGridLength);
+                generator.setMinNodes(mMinNodes);
+                generator.setMaxNodes(mMaxNodes);
+                generator.setRandomSource(new RandomSource.Xoroshiro(mSeed));
+                generator.setMetrics(mMetrics);
+
+                generator.generateBatch(mCount, mOut);
+                return mOut.position();
+            }
+            finally
+            {
+                mGenerators.put(generator);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+// Patterns that must never be handed out, kept in a Bloom filter so even
+// millions of them take a few bytes each.  A Bloom filter has no false
+// negatives, so a listed pattern is always rejected, while the share of
+// unlisted patterns it was sized for is rejected too, which only means the
+// generator draws again.  The filter is blocked: a pattern's bits all fall
+// in one 64-byte block, so a check costs one hash of the pattern and a
+// single cache miss however big the filter is, for a slightly higher false
+// positive rate.  Checking is thread-safe, adding is not.
+public class PatternBlacklist implements PatternFilter
+{
+    public static final int MAGIC = 0x4c50424c; // "LPBL"
+    public static final int VERSION = 1;
+    // magic, version, hashes, then long bit count and entry count
+    public static final int HEADER_BYTES = 28;
+    // one cache line of longs
+    public static final int BLOCK_WORDS = 8;
+
+    protected final long[] mBits;
+    protected final long mBitCount;
+    protected final int mHashes;
+    protected long mEntryCount;
+
+    // sized for "expectedEntries" patterns at the given false positive rate
+    public PatternBlacklist(long expectedEntries, double falsePositiveRate)
+    {
+        if(expectedEntries < 1 || falsePositiveRate <= 0
+                || falsePositiveRate >= 1)
+        {
+            throw new IllegalArgumentException("bad blacklist size");
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedEntries
+                * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long blocks = (bits + BLOCK_WORDS * 64 - 1) / (BLOCK_WORDS * 64);
+        int words = (int) Math.min(blocks * BLOCK_WORDS,
+                Integer.MAX_VALUE / BLOCK_WORDS * BLOCK_WORDS);
+        mBits = new long[words];
+        mBitCount = words * 64L;
+        mHashes = Math.max(1,
+                (int) Math.round((double) mBitCount / expectedEntries * ln2));
+    }
+
+    protected PatternBlacklist(long[] bits, int hashes, long entryCount)
+    {
+        mBits = bits;
+        mBitCount = bits.length * 64L;
+        mHashes = hashes;
+        mEntryCount = entryCount;
+    }
+
+    public void add(int[] pattern, int length, int gridLength)
+    {
+        long hash = hash(pattern, length, gridLength);
+        int block = block(hash);
+        // bits within the block by double hashing a second hash
+        long inner = RandomSource.SplitMix.mix(hash);
+        int bit = (int) inner;
+        int step = (int) (inner >>> 32) | 1;
+        for(int i = 0; i < mHashes; i++)
+        {
+            mBits[block + ((bit >>> 6) & (BLOCK_WORDS - 1))] |= 1L << bit;
+            bit += step;
+        }
+        mEntryCount++;
+    }
+
+    // adds the pattern along with all its rotations and reflections, so
+    // they are caught at no extra cost per check; "symmetry" is the grid's,
+    // kept by the caller across patterns
+    public void addOrbit(int[] pattern, int length, PatternSymmetry symmetry)
+    {
+        int gridLength = symmetry.getGridLength();
+        int[] image = new int[length];
+        for(int i = 0; i < GridModel.SYMMETRIES; i++)
+        {
+            symmetry.map(i, pattern, length, image);
+            if(!rejects(image, length, gridLength))
+            {
+                add(image, length, gridLength);
+            }
+        }
+    }
+
+    // adds every pattern in a PatternEncoder stream
+    public void addAll(PatternDecoder decoder) throws IOException
+    {
+        int gridLength = decoder.getGridLength();
+        int[] pattern = new int[gridLength * gridLength];
+        int length;
+        while((length = decoder.read(pattern)) >= 0)
+        {
+            add(pattern, length, gridLength);
+        }
+    }
+
+    // true if the pattern was added, or, rarely, if it was not
+    @Override
+    public boolean rejects(int[] pattern, int length, int gridLength)
+    {
+        long hash = hash(pattern, length, gridLength);
+        int block = block(hash);
+        long inner = RandomSource.SplitMix.mix(hash);
+        int bit = (int) inner;
+        int step = (int) (inner >>> 32) | 1;
+        for(int i = 0; i < mHashes; i++)
+        {
+            if((mBits[block + ((bit >>> 6) & (BLOCK_WORDS - 1))]
+                        & (1L << bit)) == 0)
+            {
+                return false;
+            }
+            bit += step;
+        }
+        return true;
+    }
+
+    // Writes the filter so load() can bring it back with one bulk read
+    // rather than by adding every pattern again
+    public void save(File file) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(mHashes)
+            .putLong(mBitCount).putLong(mEntryCount);
+        FileOutputStream stream = new FileOutputStream(file);
+        FileChannel channel = stream.getChannel();
+        try
+        {
+            int word = 0;
+            do
+            {
+                LongBuffer view = buffer.asLongBuffer();
+                int words = Math.min(view.remaining(), mBits.length - word);
+                view.put(mBits, word, words);
+                word += words;
+                buffer.position(buffer.position() + words * 8);
+                buffer.flip();
+                while(buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+            while(word < mBits.length);
+        }
+        finally
+        {
+            channel.close();
+            stream.close();
+        }
+    }
+
+    public static PatternBlacklist load(File file) throws IOException
+    {
+        FileInputStream stream = new FileInputStream(file);
+        FileChannel channel = stream.getChannel();
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+            {
+                throw new IOException("not a pattern blacklist");
+            }
+            int hashes = header.getInt(8);
+            long bitCount = header.getLong(12);
+            long entryCount = header.getLong(20);
+            if(hashes < 1 || bitCount < 64 * BLOCK_WORDS
+                    || bitCount % (64 * BLOCK_WORDS) != 0
+                    || channel.size() != HEADER_BYTES + bitCount / 8)
+            {
+                throw new IOException("corrupt pattern blacklist");
+            }
+            long[] bits = new long[(int) (bitCount / 64)];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            for(int word = 0; word < bits.length; )
+            {
+                buffer.clear();
+                buffer.limit(Math.min(buffer.capacity(),
+                            (bits.length - word) * 8));
+                readFully(channel, buffer);
+                buffer.flip();
+                LongBuffer view = buffer.asLongBuffer();
+                int words = view.remaining();
+                view.get(bits, word, words);
+                word += words;
+            }
+            return new PatternBlacklist(bits, hashes, entryCount);
+        }
+        finally
+        {
+            channel.close();
+            stream.close();
+        }
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public long getEntryCount()
+    {
+        return mEntryCount;
+    }
+
+    public long getBitCount()
+    {
+        return mBitCount;
+    }
+
+    public int getHashes()
+    {
+        return mHashes;
+    }
+
+    //
+    // Helper methods
+    //
+
+    // 64-bit hash of the node sequence, FNV-1a over the nodes finished off
+    // with SplitMix's mixer so both halves are usable
+    private static long hash(int[] pattern, int length, int gridLength)
+    {
+        long hash = 0xcbf29ce484222325L ^ gridLength;
+        for(int i = 0; i < length; i++)
+        {
+            hash = (hash ^ pattern[i]) * 0x100000001b3L;
+        }
+        return RandomSource.SplitMix.mix(hash + length);
+    }
+
+    // index of the first word of the block "hash" falls in
+    private int block(long hash)
+    {
+        return (int) ((hash & Long.MAX_VALUE) % (mBits.length / BLOCK_WORDS))
+            * BLOCK_WORDS;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer)
+        throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0)
+            {
+                throw new IOException("pattern blacklist cut short");
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+// A rule patterns have to follow, checked by PatternGenerator one node at a
+// time while it builds a pattern rather than on the finished pattern, so a
+// prefix that can no longer meet the rule is never extended.  Patterns are
+// row-major node indices.  Implementations keep no state, so one instance
+// can be shared by any number of generators.
+public interface PatternConstraint
+{
+    // whether "candidate" may follow the first "length" nodes of "pattern";
+    // "length" is 0 when the first node is being picked
+    boolean allows(int[] pattern, int length, int candidate, int gridLength);
+
+    // The fewest nodes that must still be added to the first "length" nodes
+    // of "pattern" before the rule holds, 0 once it does.  Never more than
+    // the real number, though it may be less, and never more than it was for
+    // the pattern without its last node.  "previous" is what this returned
+    // for the first length - 1 nodes, or -1 if that is not known, so the
+    // answer can be worked out from the newest node alone.
+    int nodesStillNeeded(int[] pattern, int length, int previous,
+            int gridLength);
+
+    //
+    // Implementations
+    //
+
+    // the pattern may not start on a corner of the grid
+    public static class NoCornerStart implements PatternConstraint
+    {
+        @Override
+        public boolean allows(int[] pattern, int length, int candidate,
+                int gridLength)
+        {
+            if(length > 0)
+            {
+                return true;
+            }
+            int last = gridLength - 1;
+            int x = candidate % gridLength;
+            int y = candidate / gridLength;
+            return (x != 0 && x != last) || (y != 0 && y != last);
+        }
+
+        @Override
+        public int nodesStillNeeded(int[] pattern, int length, int previous,
+                int gridLength)
+        {
+            return 0;
+        }
+    }
+
+    // The pattern has to turn at least "changes" times, where a turn is a
+    // node at which the direction of travel changes.  With one change this
+    // bans patterns that are a single straight line.
+    public static class MinDirectionChanges implements PatternConstraint
+    {
+        protected final int mChanges;
+
+        public MinDirectionChanges(int changes)
+        {
+            mChanges = changes;
+        }
+
+        @Override
+        public boolean allows(int[] pattern, int length, int candidate,
+                int gridLength)
+        {
+            return true;
+        }
+
+        // every node after the second can add at most one change
+        @Override
+        public int nodesStillNeeded(int[] pattern, int length, int previous,
+                int gridLength)
+        {
+            if(mChanges <= 0)
+            {
+                return 0;
+            }
+            if(length < 2)
+            {
+                return mChanges + 2 - length;
+            }
+            if(previous >= 0 && length > 2)
+            {
+                if(previous == 0 || !isTurn(pattern, length - 1, gridLength))
+                {
+                    return previous;
+                }
+                return previous - 1;
+            }
+            int changes = 0;
+            for(int i = 2; i < length && changes < mChanges; i++)
+            {
+                if(isTurn(pattern, i, gridLength))
+                {
+                    changes++;
+                }
+            }
+            return mChanges - changes;
+        }
+
+        public int getChanges()
+        {
+            return mChanges;
+        }
+
+        // true if the lines into and out of node "i - 1" of "pattern" do not
+        // point the same way
+        private static boolean isTurn(int[] pattern, int i, int gridLength)
+        {
+            int a = pattern[i - 2], b = pattern[i - 1], c = pattern[i];
+            int dx1 = b % gridLength - a % gridLength;
+            int dy1 = b / gridLength - a / gridLength;
+            int dx2 = c % gridLength - b % gridLength;
+            int dy2 = c / gridLength - b / gridLength;
+            // the same direction is parallel and not opposite
+            return dx1 * dy2 != dy1 * dx2 || dx1 * dx2 + dy1 * dy2 < 0;
+        }
+    }
+
+    // Two of the pattern's lines have to cross.  Lines that meet at a node
+    // or only touch do not count.
+    public static class SelfCrossing implements PatternConstraint
+    {
+        @Override
+        public boolean allows(int[] pattern, int length, int candidate,
+                int gridLength)
+        {
+            return true;
+        }
+
+        // a crossing takes two lines that do not share a node, so at least
+        // four nodes
+        @Override
+        public int nodesStillNeeded(int[] pattern, int length, int previous,
+                int gridLength)
+        {
+            if(previous == 0)
+            {
+                return 0;
+            }
+            // without a crossing before, only the newest line can make one
+            int first = previous > 0 ? Math.max(length - 1, 3) : 3;
+            for(int end = length - 1; end >= first; end--)
+            {
+                if(crossesEarlierLine(pattern, end, gridLength))
+                {
+                    return 0;
+                }
+            }
+            return Math.max(4 - length, 1);
+        }
+
+        // true if the line into node "end" of "pattern" properly crosses a
+        // line that does not touch it
+        private static boolean crossesEarlierLine(int[] pattern, int end,
+                int gridLength)
+        {
+            int cy = pattern[end - 1] / gridLength;
+            int cx = pattern[end - 1] - cy * gridLength;
+            int dy = pattern[end] / gridLength;
+            int dx = pattern[end] - dy * gridLength;
+            int ay = pattern[0] / gridLength;
+            int ax = pattern[0] - ay * gridLength;
+            for(int i = 1; i < end - 1; i++)
+            {
+                int by = pattern[i] / gridLength;
+                int bx = pattern[i] - by * gridLength;
+                // each line's ends on opposite sides of the other
+                if(side(ax, ay, bx, by, cx, cy)
+                        * side(ax, ay, bx, by, dx, dy) < 0
+                        && side(cx, cy, dx, dy, ax, ay)
+                        * side(cx, cy, dx, dy, bx, by) < 0)
+                {
+                    return true;
+                }
+                ax = bx;
+                ay = by;
+            }
+            return false;
+        }
+
+        // sign of the turn from p -> q to p -> r
+        private static int side(int px, int py, int qx, int qy, int rx,
+                int ry)
+        {
+            int cross = (qx - px) * (ry - py) - (qy - py) * (rx - px);
+            return cross > 0 ? 1 : cross < 0 ? -1 : 0;
+        }
+    }
+}
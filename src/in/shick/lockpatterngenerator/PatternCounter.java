@@ -0,0 +1,157 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Exact number of valid patterns for a grid, counted by dynamic programming
+// over (visited nodes, tail node) with the same no-skipping rule that
+// PatternGenerator enforces.  Tables are 2^n * n longs, which limits this to
+// grids of up to 4x4; LayeredPatternCounter counts larger ones.
+public class PatternCounter
+{
+    public static final int MAX_GRID_LENGTH = 4;
+
+    // pattern counts indexed by length, memoized per grid length
+    private static final Map<Integer, long[]> sCounts =
+        new HashMap<Integer, long[]>();
+    // completion tables for the last few ceilings asked for
+    private static final int COMPLETIONS_CACHE_SIZE = 4;
+    private static final Map<String, CompletionTable> sCompletions =
+        new LinkedHashMap<String, CompletionTable>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CompletionTable> eldest) {
+                return size() > COMPLETIONS_CACHE_SIZE;
+            }
+        };
+
+    public static boolean isSupported(int gridLength)
+    {
+        return gridLength >= 0 && gridLength <= MAX_GRID_LENGTH;
+    }
+
+    // number of valid patterns of every length, indexed by length
+    public static long[] getCounts(int gridLength)
+    {
+        return getCachedCounts(gridLength).clone();
+    }
+
+    // number of valid patterns with lengths in [minNodes, maxNodes]
+    public static long count(int gridLength, int minNodes, int maxNodes)
+    {
+        long[] counts = getCachedCounts(gridLength);
+        long total = 0;
+        for(int length = Math.max(minNodes, 0);
+                length <= maxNodes && length < counts.length; length++)
+        {
+            total += counts[length];
+        }
+        return total;
+    }
+
+    // Ways to finish each partial pattern without going past "ceiling"
+    // nodes, shared by every length range with that ceiling
+    public static CompletionTable getCompletionTable(int gridLength,
+            int ceiling)
+    {
+        if(!isSupported(gridLength))
+        {
+            throw new IllegalArgumentException(
+                    "grid too large to count exactly: " + gridLength);
+        }
+        ceiling = Math.max(Math.min(ceiling, gridLength * gridLength), 0);
+        String key = gridLength + ":" + ceiling;
+        synchronized(sCompletions)
+        {
+            CompletionTable table = sCompletions.get(key);
+            if(table == null)
+            {
+                table = new CompletionTable(gridLength, ceiling);
+                sCompletions.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    //
+    // Helper methods
+    //
+
+    private static long[] getCachedCounts(int gridLength)
+    {
+        if(!isSupported(gridLength))
+        {
+            throw new IllegalArgumentException(
+                    "grid too large to count exactly: " + gridLength);
+        }
+        synchronized(sCounts)
+        {
+            long[] counts = sCounts.get(gridLength);
+            if(counts == null)
+            {
+                counts = computeCounts(gridLength);
+                sCounts.put(gridLength, counts);
+            }
+            return counts;
+        }
+    }
+
+    private static long[] computeCounts(int gridLength)
+    {
+        long[] betweenMasks = GridModel.get(gridLength).getBetweenMasks();
+
+        int nodeCount = gridLength * gridLength;
+        long[] counts = new long[nodeCount + 1];
+        // paths[visited * nodeCount + tail]
+        long[] paths = new long[(1 << nodeCount) * nodeCount];
+        for(int node = 0; node < nodeCount; node++)
+        {
+            paths[(1 << node) * nodeCount + node] = 1;
+        }
+        // every move sets a bit, so visiting masks in increasing order
+        // finishes each state before it is extended
+        for(int visited = 1; visited < (1 << nodeCount); visited++)
+        {
+            int length = Integer.bitCount(visited);
+            for(int tail = 0; tail < nodeCount; tail++)
+            {
+                long ways = paths[visited * nodeCount + tail];
+                if(ways == 0)
+                {
+                    continue;
+                }
+                counts[length] += ways;
+                for(int next = 0; next < nodeCount; next++)
+                {
+                    if((visited & (1 << next)) == 0
+                            && (betweenMasks[tail * nodeCount + next]
+                                & ~visited) == 0)
+                    {
+                        paths[(visited | (1 << next)) * nodeCount + next] +=
+                            ways;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import in.shick.lockpatterngenerator.external.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A pattern built up one node at a time, for keeping the start of a
+// pattern and redrawing the rest, or for showing a pattern as it is made.
+// Moves follow the same rules as the generator it is made from, which also
+// supplies the random source, the length range, the constraints and the
+// filters.  The used set is kept along with the nodes, so adding or
+// dropping a node costs the same however long the pattern is.  Tails are
+// random walks whatever the generator's mode or seen set.
+public class PatternCursor
+{
+    protected PatternGenerator mGenerator;
+    protected int mGridLength;
+    protected int[] mNodes;
+    protected int mLength;
+    protected long[] mUsed;
+    protected int[] mMoves;
+
+    public PatternCursor(PatternGenerator generator)
+    {
+        mGenerator = generator;
+        reset();
+    }
+
+    // empties the cursor and picks up the generator's current grid
+    public void reset()
+    {
+        mGridLength = mGenerator.getGridLength();
+        int nodeCount = mGridLength * mGridLength;
+        mNodes = new int[nodeCount];
+        mUsed = new long[(nodeCount + 63) / 64];
+        mMoves = new int[nodeCount];
+        mLength = 0;
+    }
+
+    // starts over from the first "length" nodes of "prefix"
+    public void start(int[] prefix, int length)
+    {
+        checkGrid();
+        truncate(0);
+        for(int i = 0; i < length; i++)
+        {
+            if(!isMove(prefix[i]))
+            {
+                truncate(0);
+                throw new IllegalArgumentException(
+                        "not a valid pattern prefix at node " + i);
+            }
+            push(prefix[i]);
+        }
+    }
+
+    // Adds a random node that may legally follow the pattern and returns
+    // it, or returns -1 if there is none or the pattern is at the
+    // generator's maximum length
+    public int next()
+    {
+        checkGrid();
+        if(mLength >= getMaxLength())
+        {
+            return -1;
+        }
+        int moveCount =
+            mGenerator.findMoves(mNodes, mLength, mUsed, mMoves);
+        int candidateCount = 0;
+        for(int i = 0; i < moveCount; i++)
+        {
+            if(mGenerator.canExtend(mNodes, mLength, mMoves[i], 0))
+            {
+                mMoves[candidateCount++] = mMoves[i];
+            }
+        }
+        if(candidateCount == 0)
+        {
+            return -1;
+        }
+        int node =
+            mMoves[mGenerator.getRandomSource().nextInt(candidateCount)];
+        push(node);
+        return node;
+    }
+
+    // Keeps the first "index" nodes and walks a new tail from there to a
+    // random length in the generator's range, drawing again until the
+    // whole pattern meets the constraints and passes the filters.  Returns
+    // the new length.
+    public int regenerateFrom(int index)
+    {
+        checkGrid();
+        int maxLength = getMaxLength();
+        if(index < 0 || index > mLength || index > maxLength)
+        {
+            throw new IllegalArgumentException(
+                    "can't regenerate from node " + index);
+        }
+        // always redraw at least one node when there is room for one
+        int minLength = Math.max(mGenerator.getMinNodes(),
+                Math.min(index + 1, maxLength));
+        RandomSource rng = mGenerator.getRandomSource();
+        for(int attempt = 0; attempt < PatternGenerator.MAX_ATTEMPTS;
+                attempt++)
+        {
+            truncate(index);
+            int target = minLength;
+            if(maxLength > minLength)
+            {
+                target += rng.nextInt(maxLength - minLength + 1);
+            }
+            while(mLength < target)
+            {
+                if(next() < 0)
+                {
+                    break;
+                }
+            }
+            if(mLength >= mGenerator.getMinNodes()
+                    && mGenerator.meetsConstraints(mNodes, mLength)
+                    && mGenerator.passesFilters(mNodes, mLength))
+            {
+                return mLength;
+            }
+        }
+        truncate(index);
+        throw new IllegalStateException(
+                "no pattern meets the constraints and filters");
+    }
+
+    // drops every node from "length" on
+    public void truncate(int length)
+    {
+        if(length < 0 || length > mLength)
+        {
+            throw new IllegalArgumentException(
+                    "can't truncate to " + length + " nodes");
+        }
+        while(mLength > length)
+        {
+            int node = mNodes[--mLength];
+            mUsed[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public int getLength()
+    {
+        return mLength;
+    }
+
+    public int getNode(int index)
+    {
+        if(index < 0 || index >= mLength)
+        {
+            throw new IndexOutOfBoundsException("no node " + index);
+        }
+        return mNodes[index];
+    }
+
+    // copies the nodes into "out" and returns how many there are
+    public int getNodes(int[] out)
+    {
+        System.arraycopy(mNodes, 0, out, 0, mLength);
+        return mLength;
+    }
+
+    public List<Point> getPattern()
+    {
+        GridModel model = GridModel.get(mGridLength);
+        List<Point> pattern = new ArrayList<Point>(mLength);
+        for(int i = 0; i < mLength; i++)
+        {
+            pattern.add(model.getPoint(mNodes[i]));
+        }
+        return pattern;
+    }
+
+    public PatternGenerator getGenerator()
+    {
+        return mGenerator;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private int getMaxLength()
+    {
+        return Math.min(mGenerator.getMaxNodes(), mNodes.length);
+    }
+
+    private void checkGrid()
+    {
+        if(mGenerator.getGridLength() != mGridLength)
+        {
+            throw new IllegalStateException(
+                    "generator grid changed, reset the cursor");
+        }
+    }
+
+    // true if "node" may follow the pattern so far
+    private boolean isMove(int node)
+    {
+        if(node < 0 || node >= mNodes.length
+                || (mUsed[node >>> 6] & (1L << node)) != 0)
+        {
+            return false;
+        }
+        int moveCount =
+            mGenerator.findMoves(mNodes, mLength, mUsed, mMoves);
+        for(int i = 0; i < moveCount; i++)
+        {
+            if(mMoves[i] == node)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void push(int node)
+    {
+        mUsed[node >>> 6] |= 1L << node;
+        mNodes[mLength++] = node;
+    }
+}
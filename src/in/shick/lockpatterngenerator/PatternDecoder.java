@@ -0,0 +1,197 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Reads back what PatternEncoder wrote
+public class PatternDecoder
+{
+    public static final int BUFFER_BYTES = 8192;
+
+    protected final InputStream mIn;
+    protected final int mGridLength;
+    protected final int mNodeCount;
+    protected final boolean mNibbles;
+    protected final byte[] mBuffer;
+    // mBuffer again, for PatternRecords
+    protected final ByteBuffer mBytes;
+    protected int mPosition;
+    protected int mLimit;
+
+    public PatternDecoder(InputStream in) throws IOException
+    {
+        mIn = in;
+        mBuffer = new byte[BUFFER_BYTES];
+        mBytes = ByteBuffer.wrap(mBuffer);
+        for(int i = 0; i < PatternEncoder.MAGIC.length; i++)
+        {
+            if(nextByte() != PatternEncoder.MAGIC[i])
+            {
+                throw new IOException("not a pattern stream");
+            }
+        }
+        int version = nextByte();
+        if(version != PatternEncoder.VERSION)
+        {
+            throw new IOException("unsupported version: " + version);
+        }
+        mGridLength = nextVarint();
+        // past this the node count no longer fits an int
+        if(mGridLength > 46340)
+        {
+            throw corrupt();
+        }
+        mNodeCount = mGridLength * mGridLength;
+        mNibbles = PatternEncoder.usesNibbles(mGridLength);
+    }
+
+    // Reads the next pattern into "out" and returns its length, or -1 at the
+    // end of the stream.  An empty pattern, one longer than the grid or than
+    // "out", or one with a node off the grid means the stream is corrupt.
+    public int read(int[] out) throws IOException
+    {
+        if(mPosition == mLimit && !fill())
+        {
+            return -1;
+        }
+        if(!mNibbles)
+        {
+            int length = checkLength(nextVarint(), out);
+            for(int i = 0; i < length; i++)
+            {
+                out[i] = checkNode(nextVarint());
+            }
+            return length;
+        }
+        int length = checkLength(
+                PatternRecords.nibbleLength(mBytes, mPosition), out);
+        int bytes = PatternRecords.nibbleBytes(length);
+        require(bytes);
+        PatternRecords.getNibbles(mBytes, mPosition, length, out);
+        mPosition += bytes;
+        for(int i = 0; i < length; i++)
+        {
+            checkNode(out[i]);
+        }
+        return length;
+    }
+
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+
+    public void close() throws IOException
+    {
+        mIn.close();
+    }
+
+    //
+    // Helper methods
+    //
+
+    private boolean fill() throws IOException
+    {
+        int read = mIn.read(mBuffer);
+        while(read == 0)
+        {
+            read = mIn.read(mBuffer);
+        }
+        mPosition = 0;
+        mLimit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    // brings the next "bytes" bytes into the buffer together, keeping any
+    // already read
+    private void require(int bytes) throws IOException
+    {
+        if(mLimit - mPosition >= bytes)
+        {
+            return;
+        }
+        mLimit -= mPosition;
+        System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit);
+        mPosition = 0;
+        while(mLimit < bytes)
+        {
+            int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if(read < 0)
+            {
+                throw new EOFException("pattern stream cut short");
+            }
+            mLimit += read;
+        }
+    }
+
+    private int nextByte() throws IOException
+    {
+        if(mPosition == mLimit && !fill())
+        {
+            throw new EOFException("pattern stream cut short");
+        }
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    // non-negative ints only, so at most 31 bits
+    private int nextVarint() throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; ; shift += 7)
+        {
+            int b = nextByte();
+            if(shift == 28 && (b & 0xf8) != 0)
+            {
+                throw corrupt();
+            }
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+    }
+
+    private int checkLength(int length, int[] out) throws IOException
+    {
+        if(length < 1 || length > mNodeCount || length > out.length)
+        {
+            throw corrupt();
+        }
+        return length;
+    }
+
+    private int checkNode(int node) throws IOException
+    {
+        if(node >= mNodeCount)
+        {
+            throw corrupt();
+        }
+        return node;
+    }
+
+    private static IOException corrupt()
+    {
+        return new IOException("corrupt pattern stream");
+    }
+}
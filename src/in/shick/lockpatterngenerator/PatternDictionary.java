@@ -0,0 +1,260 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Every valid pattern of a grid, written once to a file in PatternIndex rank
+// order and read back through a read-only memory mapping.  Each record has
+// the same width, a 4-bit length - 1 and then a 4-bit index per node, so
+// pattern #i sits at a fixed offset and needs no tables to find or decode.
+// The whole file is one mapping, which caps it at 2GB: the 3x3 grid is 2MB,
+// but the complete 4x4 grid (over 4 trillion patterns) only fits when the
+// length range is narrowed.
+public class PatternDictionary
+{
+    public static final int MAGIC = 0x4c504744; // "LPGD"
+    public static final int VERSION = 1;
+    // magic, version, grid, min, max, record width, then a long count
+    public static final int HEADER_BYTES = 32;
+
+    protected final ByteBuffer mRecords;
+    protected final int mGridLength;
+    protected final int mMinNodes;
+    protected final int mMaxNodes;
+    protected final int mRecordBytes;
+    protected final long mSize;
+
+    protected PatternDictionary(ByteBuffer buffer) throws IOException
+    {
+        if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("not a pattern dictionary");
+        }
+        if(buffer.getInt(4) != VERSION)
+        {
+            throw new IOException(
+                    "unsupported version: " + buffer.getInt(4));
+        }
+        mGridLength = buffer.getInt(8);
+        mMinNodes = buffer.getInt(12);
+        mMaxNodes = buffer.getInt(16);
+        mRecordBytes = buffer.getInt(20);
+        mSize = buffer.getLong(24);
+        if(mRecordBytes != PatternRecords.nibbleBytes(mMaxNodes)
+                || buffer.capacity() - HEADER_BYTES != mSize * mRecordBytes)
+        {
+            throw new IOException("corrupt pattern dictionary");
+        }
+        buffer.position(HEADER_BYTES);
+        mRecords = buffer.slice();
+    }
+
+    public static PatternDictionary open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("pattern dictionary too large");
+            }
+            // the mapping stays valid after the file is closed
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PatternDictionary(buffer);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    // writes the dictionary of every pattern of the grid with a length in
+    // [minNodes, maxNodes] and returns how many there were
+    public static long write(File file, int gridLength, int minNodes,
+            int maxNodes) throws IOException
+    {
+        if(!PatternCounter.isSupported(gridLength) || minNodes < 1
+                || minNodes > maxNodes || maxNodes > gridLength * gridLength)
+        {
+            throw new IllegalArgumentException("bad dictionary settings");
+        }
+        PatternIndex index = new PatternIndex(gridLength, minNodes, maxNodes);
+        int recordBytes = PatternRecords.nibbleBytes(maxNodes);
+        if(index.size() > (Integer.MAX_VALUE - HEADER_BYTES) / recordBytes)
+        {
+            throw new IllegalArgumentException("too many patterns to map: "
+                    + index.size());
+        }
+
+        ByteBuffer output = ByteBuffer.allocateDirect(1024 * 1024);
+        output.putInt(MAGIC).putInt(VERSION).putInt(gridLength)
+            .putInt(minNodes).putInt(maxNodes).putInt(recordBytes)
+            .putLong(index.size());
+        FileOutputStream stream = new FileOutputStream(file);
+        FileChannel channel = stream.getChannel();
+        try
+        {
+            PatternRange range = new PatternRange(index);
+            int[] pattern = new int[maxNodes];
+            byte[] zeros = new byte[recordBytes];
+            int length;
+            while((length = range.tryAdvance(pattern)) > 0)
+            {
+                if(output.remaining() < recordBytes)
+                {
+                    PatternRecords.flush(output, channel);
+                }
+                int start = output.position();
+                int end = PatternRecords.putNibbles(output, start, pattern,
+                        length);
+                // zero the unused nibbles
+                output.position(end);
+                output.put(zeros, 0, start + recordBytes - end);
+            }
+            PatternRecords.flush(output, channel);
+        }
+        finally
+        {
+            channel.close();
+            stream.close();
+        }
+        return index.size();
+    }
+
+    // writes pattern #i into "out" and returns its length; nothing is copied
+    // out of the mapping but the nodes themselves
+    public int get(long i, int[] out)
+    {
+        if(i < 0 || i >= mSize)
+        {
+            throw new IndexOutOfBoundsException("no pattern #" + i);
+        }
+        int offset = (int) i * mRecordBytes;
+        int length = PatternRecords.nibbleLength(mRecords, offset);
+        PatternRecords.getNibbles(mRecords, offset, length, out);
+        return length;
+    }
+
+    // a uniformly chosen pattern, as get() does it
+    public int sample(RandomSource rng, int[] out)
+    {
+        // the 2GB cap keeps the size an int
+        return get(rng.nextInt((int) mSize), out);
+    }
+
+    // appends patterns [from, from + count) to "out" in the length-prefixed
+    // layout of PatternGenerator.generateBatch()
+    public void export(long from, int count, IntBuffer out)
+    {
+        if(from < 0 || count < 0 || from + count > mSize)
+        {
+            throw new IndexOutOfBoundsException("bad range");
+        }
+        int[] pattern = new int[mMaxNodes];
+        for(long i = from; i < from + count; i++)
+        {
+            int length = get(i, pattern);
+            out.put(length);
+            out.put(pattern, 0, length);
+        }
+    }
+
+    // the number of the pattern given by the first "length" entries of
+    // "pattern", or -1 if it is not in the dictionary.  Rank order is plain
+    // lexicographic order with a pattern before its extensions, so this is
+    // a binary search over the records.
+    public long indexOf(int[] pattern, int length)
+    {
+        long low = 0;
+        long high = mSize - 1;
+        while(low <= high)
+        {
+            long mid = (low + high) >>> 1;
+            int order = compare(mid, pattern, length);
+            if(order < 0)
+            {
+                low = mid + 1;
+            }
+            else if(order > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public long size()
+    {
+        return mSize;
+    }
+
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+
+    public int getMinNodes()
+    {
+        return mMinNodes;
+    }
+
+    public int getMaxNodes()
+    {
+        return mMaxNodes;
+    }
+
+    //
+    // Helper methods
+    //
+
+    // orders record #i against the given pattern
+    private int compare(long i, int[] pattern, int length)
+    {
+        int offset = (int) i * mRecordBytes;
+        int recordLength = PatternRecords.nibbleLength(mRecords, offset);
+        int common = Math.min(recordLength, length);
+        for(int n = 0; n < common; n++)
+        {
+            int node = PatternRecords.nibbleNode(mRecords, offset, n);
+            if(node != pattern[n])
+            {
+                return node < pattern[n] ? -1 : 1;
+            }
+        }
+        return recordLength - length;
+    }
+}
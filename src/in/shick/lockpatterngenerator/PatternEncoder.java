@@ -0,0 +1,135 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Writes patterns as a compact byte stream.  After a header naming the grid
+// length, every pattern takes one byte-aligned record: for grids of up to 16
+// nodes a 4-bit length - 1 followed by a 4-bit index per node, so a 9 node
+// 3x3 pattern is 5 bytes, and for bigger grids a varint length followed by
+// a varint per node.  Read back with PatternDecoder.
+public class PatternEncoder
+{
+    public static final byte[] MAGIC = { 'L', 'P', 'G' };
+    public static final int VERSION = 1;
+    public static final int BUFFER_BYTES = 8192;
+
+    protected final OutputStream mOut;
+    protected final int mNodeCount;
+    protected final boolean mNibbles;
+    protected final byte[] mBuffer;
+    // mBuffer again, for PatternRecords
+    protected final ByteBuffer mBytes;
+    protected int mPosition;
+
+    public PatternEncoder(OutputStream out, int gridLength) throws IOException
+    {
+        mOut = out;
+        mNodeCount = gridLength * gridLength;
+        mNibbles = usesNibbles(gridLength);
+        mBuffer = new byte[BUFFER_BYTES];
+        mBytes = ByteBuffer.wrap(mBuffer);
+        out.write(MAGIC);
+        out.write(VERSION);
+        putVarint(gridLength);
+    }
+
+    // records the pattern in the first "length" entries of "pattern"
+    public void write(int[] pattern, int length) throws IOException
+    {
+        if(length < 1 || length > mNodeCount)
+        {
+            throw new IllegalArgumentException(
+                    "pattern length out of range: " + length);
+        }
+        // worst case is a 5 byte varint per value
+        if(mPosition + 5 * (length + 1) > BUFFER_BYTES)
+        {
+            drain();
+        }
+        if(!mNibbles)
+        {
+            putVarint(length);
+            for(int i = 0; i < length; i++)
+            {
+                putVarint(checkNode(pattern[i]));
+            }
+            return;
+        }
+        for(int i = 0; i < length; i++)
+        {
+            checkNode(pattern[i]);
+        }
+        mPosition = PatternRecords.putNibbles(mBytes, mPosition, pattern,
+                length);
+    }
+
+    public void flush() throws IOException
+    {
+        drain();
+        mOut.flush();
+    }
+
+    public void close() throws IOException
+    {
+        drain();
+        mOut.close();
+    }
+
+    //
+    // Helper methods
+    //
+
+    static boolean usesNibbles(int gridLength)
+    {
+        return gridLength * gridLength <= 16;
+    }
+
+    private int checkNode(int node)
+    {
+        if(node < 0 || node >= mNodeCount)
+        {
+            throw new IllegalArgumentException("no such node: " + node);
+        }
+        return node;
+    }
+
+    private void putVarint(int value) throws IOException
+    {
+        if(mPosition + 5 > BUFFER_BYTES)
+        {
+            drain();
+        }
+        while((value & ~0x7f) != 0)
+        {
+            mBuffer[mPosition++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    private void drain() throws IOException
+    {
+        mOut.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// How much guessing a generator configuration costs an attacker, both for
+// PatternGenerator.MODE_WALK (a uniform length, a uniform start, then a
+// uniform choice among the legal moves at every step) and for MODE_UNIFORM.
+// Shannon entropy is the average case, min-entropy is set by the single most
+// likely pattern.  Needs grids PatternCounter can handle.  The first report
+// for a grid walks every partial pattern, which takes a while on 4x4, so
+// callers on a UI thread should check isReady() and otherwise ask from a
+// worker thread.  The walk keeps two popcount layers at a time, well under
+// 1 MB each on 4x4, so it fits the small heaps of old devices.
+public class PatternEntropy
+{
+    private static final double LN_2 = Math.log(2);
+    // a walk's first nodes don't depend on the length it picked, so one
+    // table per grid serves every length range; the lock is only held to
+    // find or publish a grid's build, never while building
+    private static final Map<Integer, FutureTask<WalkTable>> sWalkTables =
+        new HashMap<Integer, FutureTask<WalkTable>>();
+
+    protected final long mPatternCount;
+    protected final double mWalkBits;
+    protected final double mWalkMinEntropyBits;
+
+    protected PatternEntropy(long patternCount, double walkBits,
+            double walkMinEntropyBits)
+    {
+        mPatternCount = patternCount;
+        mWalkBits = walkBits;
+        mWalkMinEntropyBits = walkMinEntropyBits;
+    }
+
+    public static boolean isSupported(int gridLength, int minNodes,
+            int maxNodes)
+    {
+        return PatternCounter.isSupported(gridLength) && minNodes >= 1
+            && minNodes <= Math.min(maxNodes, gridLength * gridLength);
+    }
+
+    // whether get() can answer for this grid without walking it first
+    public static boolean isReady(int gridLength)
+    {
+        FutureTask<WalkTable> task;
+        synchronized(sWalkTables)
+        {
+            task = sWalkTables.get(gridLength);
+        }
+        if(task == null || !task.isDone())
+        {
+            return false;
+        }
+        // done, so this doesn't wait; a failed build isn't ready
+        try
+        {
+            task.get();
+            return true;
+        }
+        catch(ExecutionException e)
+        {
+            return false;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // report for a generator configuration, worked out from its grid's
+    // cached walk table
+    public static PatternEntropy get(int gridLength, int minNodes,
+            int maxNodes)
+    {
+        if(!isSupported(gridLength, minNodes, maxNodes))
+        {
+            throw new IllegalArgumentException("unsupported configuration: "
+                    + gridLength + ", " + minNodes + ", " + maxNodes);
+        }
+        WalkTable table = getWalkTable(gridLength);
+        int nodeCount = gridLength * gridLength;
+        int pathMaxLen = Math.min(maxNodes, nodeCount);
+
+        // the length is chosen first, so its entropy adds to that of the
+        // nodes; the most likely pattern is the cheapest of any length
+        int lengths = pathMaxLen - minNodes + 1;
+        double pathBits = 0;
+        double bestCost = Double.POSITIVE_INFINITY;
+        double nodeBits = log2(nodeCount);
+        for(int length = 1; length <= pathMaxLen; length++)
+        {
+            if(length >= minNodes)
+            {
+                pathBits += nodeBits / lengths;
+                bestCost = Math.min(bestCost, table.mLeastCost[length]);
+            }
+            nodeBits += table.mChoiceBits[length];
+        }
+        double lengthBits = log2(lengths);
+        long patternCount = 0;
+        for(int length = minNodes; length <= pathMaxLen; length++)
+        {
+            patternCount += table.mCounts[length];
+        }
+        return new PatternEntropy(patternCount, lengthBits + pathBits,
+                lengthBits + log2(nodeCount) + bestCost);
+    }
+    public static PatternEntropy get(PatternGenerator generator)
+    {
+        return get(generator.getGridLength(), generator.getMinNodes(),
+                generator.getMaxNodes());
+    }
+
+    //
+    // Accessors
+    //
+
+    // number of distinct patterns the configuration can produce
+    public long getPatternCount()
+    {
+        return mPatternCount;
+    }
+
+    // every pattern equally likely, so Shannon and min-entropy agree
+    public double getUniformBits()
+    {
+        return log2(mPatternCount);
+    }
+
+    public double getWalkBits()
+    {
+        return mWalkBits;
+    }
+
+    public double getWalkMinEntropyBits()
+    {
+        return mWalkMinEntropyBits;
+    }
+
+    // chance of the walk producing its single most likely pattern
+    public double getWalkMaxProbability()
+    {
+        return Math.pow(2, -mWalkMinEntropyBits);
+    }
+
+    //
+    // Helper methods
+    //
+
+    // The first caller for a grid builds its table on its own thread and
+    // callers for the same grid meanwhile wait for that build, so only one
+    // is ever running per grid.  A failed build is forgotten, so the next
+    // call tries again, and its exception or error is passed on.
+    private static WalkTable getWalkTable(final int gridLength)
+    {
+        FutureTask<WalkTable> task;
+        boolean owner = false;
+        synchronized(sWalkTables)
+        {
+            task = sWalkTables.get(gridLength);
+            if(task == null)
+            {
+                task = new FutureTask<WalkTable>(new Callable<WalkTable>() {
+                    @Override
+                    public WalkTable call() {
+                        return new WalkTable(gridLength);
+                    }
+                });
+                sWalkTables.put(gridLength, task);
+                owner = true;
+            }
+        }
+        if(owner)
+        {
+            task.run();
+        }
+        try
+        {
+            return task.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for "
+                    + gridLength + "x" + gridLength + " walk table");
+        }
+        catch(ExecutionException e)
+        {
+            synchronized(sWalkTables)
+            {
+                if(sWalkTables.get(gridLength) == task)
+                {
+                    sWalkTables.remove(gridLength);
+                }
+            }
+            Throwable cause = e.getCause();
+            if(cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private static double log2(double value)
+    {
+        return Math.log(value) / LN_2;
+    }
+
+    //
+    // Inner classes
+    //
+
+    // What the walk does at each length when left to run through the whole
+    // grid: mChoiceBits[i] is the expected log2 of the number of choices for
+    // the (i + 1)th node, mLeastCost[i] the smallest total log2 of the
+    // choices made on any way to i nodes, mCounts[i] the number of
+    // patterns of i nodes.
+    private static class WalkTable
+    {
+        protected final double[] mChoiceBits;
+        protected final double[] mLeastCost;
+        protected final long[] mCounts;
+
+        // States (visited, tail) are kept a layer of k nodes at a time,
+        // at rank * k + slot with masks in Colex order, and every state
+        // passes what it has on to the next layer.
+        public WalkTable(int gridLength)
+        {
+            long[] betweenMasks =
+                GridModel.get(gridLength).getBetweenMasks();
+            int nodeCount = gridLength * gridLength;
+            mChoiceBits = new double[nodeCount + 1];
+            mLeastCost = new double[nodeCount + 1];
+            mCounts = new long[nodeCount + 1];
+            Arrays.fill(mLeastCost, Double.POSITIVE_INFINITY);
+            if(nodeCount == 0)
+            {
+                return;
+            }
+
+            // reach[...] is the chance that a walk's first nodes are
+            // exactly that state, cost[...] the least total log2 of the
+            // number of choices made on any way there, paths[...] the
+            // number of ways there
+            double[] reach = new double[nodeCount];
+            double[] cost = new double[nodeCount];
+            long[] paths = new long[nodeCount];
+            Arrays.fill(reach, 1.0 / nodeCount);
+            Arrays.fill(paths, 1);
+            int[] nodes = new int[nodeCount];
+            // below[j] is the rank contribution of the mask's first j
+            // nodes, shifted[j] that of the rest once one more node is
+            // slotted in before them
+            long[] below = new long[nodeCount + 1];
+            long[] shifted = new long[nodeCount + 1];
+            for(int k = 1; k <= nodeCount; k++)
+            {
+                int masks = (int) Colex.binomial(nodeCount, k);
+                int nextSize = k < nodeCount
+                    ? (int) Colex.binomial(nodeCount, k + 1) * (k + 1) : 0;
+                double[] nextReach = new double[nextSize];
+                double[] nextCost = new double[nextSize];
+                long[] nextPaths = new long[nextSize];
+                Arrays.fill(nextCost, Double.POSITIVE_INFINITY);
+                for(int visited = Colex.first(k), rank = 0; rank < masks;
+                        rank++, visited = Colex.next(visited))
+                {
+                    for(int j = 0, rest = visited; j < k; j++)
+                    {
+                        nodes[j] = Integer.numberOfTrailingZeros(rest);
+                        rest &= rest - 1;
+                        below[j + 1] =
+                            below[j] + Colex.binomial(nodes[j], j + 1);
+                    }
+                    shifted[k] = 0;
+                    for(int j = k - 1; j >= 0; j--)
+                    {
+                        shifted[j] =
+                            shifted[j + 1] + Colex.binomial(nodes[j], j + 2);
+                    }
+                    for(int slot = 0; slot < k; slot++)
+                    {
+                        int state = rank * k + slot;
+                        double p = reach[state];
+                        if(p == 0)
+                        {
+                            continue;
+                        }
+                        double c = cost[state];
+                        mCounts[k] += paths[state];
+                        mLeastCost[k] = Math.min(mLeastCost[k], c);
+                        int tail = nodes[slot];
+                        long moves = 0;
+                        for(int next = 0; next < nodeCount; next++)
+                        {
+                            if((visited & (1 << next)) == 0
+                                    && (betweenMasks[tail * nodeCount + next]
+                                        & ~visited) == 0)
+                            {
+                                moves |= 1L << next;
+                            }
+                        }
+                        if(moves == 0)
+                        {
+                            continue;
+                        }
+                        int choices = Long.bitCount(moves);
+                        double bits = log2(choices);
+                        mChoiceBits[k] += p * bits;
+                        while(moves != 0)
+                        {
+                            int next = Long.numberOfTrailingZeros(moves);
+                            moves &= moves - 1;
+                            int j = Colex.slot(visited, next);
+                            int target = (int) (below[j]
+                                    + Colex.binomial(next, j + 1)
+                                    + shifted[j]) * (k + 1) + j;
+                            nextReach[target] += p / choices;
+                            nextCost[target] =
+                                Math.min(nextCost[target], c + bits);
+                            nextPaths[target] += paths[state];
+                        }
+                    }
+                }
+                reach = nextReach;
+                cost = nextCost;
+                paths = nextPaths;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+// Vetoes finished patterns before PatternGenerator hands them out, for
+// rules that look at a pattern as a whole rather than node by node (see
+// PatternConstraint for those).  Called for every pattern generated, so
+// implementations should not allocate.
+public interface PatternFilter
+{
+    // true if the pattern in the first "length" entries of "pattern" on a
+    // grid of "gridLength" nodes a side must not be handed out
+    boolean rejects(int[] pattern, int length, int gridLength);
+}
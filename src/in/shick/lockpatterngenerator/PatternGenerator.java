@@ -20,71 +20,573 @@ package in.shick.lockpatterngenerator;
 
 import in.shick.lockpatterngenerator.external.Point;
 
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 public class PatternGenerator
 {
+    // MODE_WALK picks a length, then wanders; MODE_UNIFORM gives every valid
+    // pattern in the length range the same chance, but only for grids small
+    // enough for PatternCounter (see isUniformSupported())
+    public static final int MODE_WALK = 0, MODE_UNIFORM = 1;
+    // how many fresh starts a pattern gets before the constraints and
+    // filters are taken to be impossible to satisfy
+    public static final int MAX_ATTEMPTS = 1000;
+    // random ranks tried for an unseen pattern before scanning for one
+    public static final int UNSEEN_TRIES = 64;
+
     protected int mGridLength;
     protected int mMinNodes;
     protected int mMaxNodes;
-    protected Random mRng;
-    protected List<Point> mAllNodes;
+    protected RandomSource mRng;
+    protected int mMode;
+    protected int mNodeCount;
+    protected GridModel mGridModel;
+    // the model's tables, copied out for the walks' inner loops: between
+    // masks for grids of up to 64 nodes, the gcd table for larger ones
+    protected long[] mBetweenMasks;
+    protected int[] mGcds;
+    // scratch space for the allocation-free engine
+    protected int[] mCandidates;
+    protected long[] mUsedWords;
+    protected int[] mFreeNodes;
+    protected int[] mFreePositions;
+    // built on first use in MODE_UNIFORM
+    protected PatternIndex mUniformIndex;
+    // patterns handed out so far, when no pattern may be repeated
+    protected SeenPatternSet mSeenSet;
+    // kept as an array so the walk's inner loop makes no List calls
+    protected PatternConstraint[] mConstraints;
+    // what each constraint still needs during a constrained walk
+    protected int[] mConstraintNeeds;
+    protected PatternFilter[] mFilters;
+    protected GenerationMetrics mMetrics;
+    // the calling thread's recorder while a pattern is made with metrics on
+    protected GenerationMetrics.Recorder mRecorder;
+    // patterns thrown away while making the current one
+    protected int mRedraws;
 
     public PatternGenerator()
     {
-        mRng = new Random();
+        mRng = new RandomSource.Standard();
+        mConstraints = new PatternConstraint[0];
+        mConstraintNeeds = new int[0];
+        mFilters = new PatternFilter[0];
         setGridLength(0);
         setMinNodes(0);
         setMaxNodes(0);
     }
 
+    // A generator set up just like "other": grid, length range, mode, and
+    // the very same RandomSource, constraints, filters, seen set and
+    // metrics.  Only its scratch space is its own, so it can run on another
+    // thread as long as whatever it shares with "other" is thread-safe.
+    public PatternGenerator(PatternGenerator other)
+    {
+        mRng = other.mRng;
+        mMode = other.mMode;
+        mSeenSet = other.mSeenSet;
+        mConstraints = other.mConstraints.clone();
+        mConstraintNeeds = new int[mConstraints.length];
+        mFilters = other.mFilters.clone();
+        mMetrics = other.mMetrics;
+        setGridLength(other.mGridLength);
+        setMinNodes(other.mMinNodes);
+        setMaxNodes(other.mMaxNodes);
+    }
+
     public List<Point> getPattern()
     {
-        List<Point> pattern = new ArrayList<Point>();
+        int[] nodes =
+            new int[Math.max(Math.min(mMaxNodes, mNodeCount), 1)];
+        int length = getPattern(nodes);
+        List<Point> pattern = new ArrayList<Point>(length);
+        for(int i = 0; i < length; i++)
+        {
+            pattern.add(mGridModel.getPoint(nodes[i]));
+        }
+        return pattern;
+    }
+
+    // Writes the row-major indices of a new pattern's nodes into "out" and
+    // returns the pattern length.  Nothing is allocated here, so this is the
+    // one to call in tight loops; "out" must have room for getMaxNodes()
+    // nodes (or every node in the grid, whichever is smaller).
+    public int getPattern(int[] out)
+    {
         if(mMaxNodes < 1)
         {
-            return pattern;
+            return 0;
         }
-        // list for random access, set for fast membership testing
-        List<Point> nodeAvailList = new ArrayList<Point>(mAllNodes);
-        int pathMaxLen = (int) Math.min(mMaxNodes, Math.pow(mGridLength, 2));
-        int pathLen = mRng.nextInt(pathMaxLen - mMinNodes + 1) + mMinNodes;
+        int pathMaxLen = Math.min(mMaxNodes, mNodeCount);
+        return generate(out, mMinNodes, pathMaxLen - mMinNodes + 1,
+                getUniformIndex());
+    }
 
-        Point tail = nodeAvailList.remove(mRng.nextInt(nodeAvailList.size()));
-        pattern.add(tail);
-        for(int ii = 1; ii < pathLen; ii++)
+    // Generates "count" patterns back to back into "out", each one written as
+    // its length followed by its node indices, so "out" needs room for up to
+    // count * (1 + getMaxNodes()) ints.  The length clamp and scratch space
+    // are worked out once for the whole batch.
+    public void generateBatch(int count, IntBuffer out)
+    {
+        int pathMaxLen = Math.min(mMaxNodes, mNodeCount);
+        int pathMin = mMinNodes;
+        int pathRange = pathMaxLen - pathMin + 1;
+        int[] nodes = new int[Math.max(pathMaxLen, 1)];
+        PatternIndex uniformIndex = mMaxNodes >= 1 ? getUniformIndex() : null;
+        for(int i = 0; i < count; i++)
         {
-            // build list of possible points
-            List<Point> nodeCandidatesList = new ArrayList<Point>(nodeAvailList);
-            for(int i = 0; i < nodeCandidatesList.size(); i++)
+            int length = 0;
+            if(mMaxNodes >= 1)
             {
-                Point delta = new Point(nodeCandidatesList.get(i).x - tail.x, nodeCandidatesList.get(i).y - tail.y);
-                // remove this point if there is other unused point between this one and "tail"
-                int gcd = Math.abs(computeGcd(delta.x, delta.y));
-                if(gcd > 1)
+                length = generate(nodes, pathMin, pathRange, uniformIndex);
+            }
+            out.put(length);
+            out.put(nodes, 0, length);
+        }
+    }
+    // same as above, with ints stored in the byte order of "out"
+    public void generateBatch(int count, ByteBuffer out)
+    {
+        IntBuffer view = out.asIntBuffer();
+        generateBatch(count, view);
+        out.position(out.position() + view.position() * 4);
+    }
+
+    private int generate(int[] out, int pathMin, int pathRange,
+            PatternIndex uniformIndex)
+    {
+        if(mMetrics == null)
+        {
+            return generateChecked(out, pathMin, pathRange, uniformIndex);
+        }
+        GenerationMetrics.Recorder recorder = mMetrics.getRecorder();
+        boolean timed = recorder.shouldTime();
+        long start = timed ? System.nanoTime() : 0;
+        mRecorder = recorder;
+        mRedraws = 0;
+        try
+        {
+            int length =
+                generateChecked(out, pathMin, pathRange, uniformIndex);
+            recorder.recordPattern(mRedraws,
+                    timed ? System.nanoTime() - start : -1);
+            return length;
+        }
+        finally
+        {
+            mRecorder = null;
+        }
+    }
+
+    private int generateChecked(int[] out, int pathMin, int pathRange,
+            PatternIndex uniformIndex)
+    {
+        if(mConstraints.length == 0 && mFilters.length == 0)
+        {
+            return draw(out, pathMin, pathRange, uniformIndex);
+        }
+        boolean steer = mConstraints.length > 0 && mSeenSet == null
+            && uniformIndex == null;
+        // Ranks can't be steered and filters only see whole patterns, so
+        // draw until a pattern passes, which keeps the draw uniform over the
+        // patterns that do.  With a seen set the ranks of rejected patterns
+        // are used up as well.  Steered walks that get stuck and patterns
+        // that get rejected share the one budget of attempts.
+        for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            int length = steer ? walkConstrained(out, pathMin, pathRange)
+                : draw(out, pathMin, pathRange, uniformIndex);
+            if(length >= 0 && (steer || meetsConstraints(out, length))
+                    && passesFilters(out, length))
+            {
+                return length;
+            }
+            mRedraws++;
+        }
+        throw new IllegalStateException(
+                "no pattern meets the constraints and filters");
+    }
+
+    private int draw(int[] out, int pathMin, int pathRange,
+            PatternIndex uniformIndex)
+    {
+        if(mSeenSet != null)
+        {
+            return generateUnseen(out);
+        }
+        // every rank is a distinct valid pattern, so a uniform rank makes a
+        // uniform pattern
+        if(uniformIndex != null)
+        {
+            return uniformIndex.unrank(nextLong(uniformIndex.size()), out);
+        }
+        return walk(out, mRng.nextInt(pathRange) + pathMin);
+    }
+
+    private int walk(int[] out, int pathLen)
+    {
+        if(mBetweenMasks != null)
+        {
+            return walkMask(out, pathLen);
+        }
+        return walkSparse(out, pathLen);
+    }
+
+    // random walk for grids of up to 64 nodes, used set kept in a single long
+    private int walkMask(int[] out, int pathLen)
+    {
+        int nodeCount = mNodeCount;
+        long allNodes = nodeCount == 64 ? -1L : (1L << nodeCount) - 1;
+        int[] candidates = mCandidates;
+
+        GenerationMetrics.Recorder recorder = mRecorder;
+
+        int tail = mRng.nextInt(nodeCount);
+        long used = 1L << tail;
+        out[0] = tail;
+        int length = 1;
+        for(; length < pathLen; length++)
+        {
+            // build list of possible nodes, an unused node may not be skipped
+            int candidateCount = 0;
+            long free = allNodes & ~used;
+            while(free != 0)
+            {
+                int i = Long.numberOfTrailingZeros(free);
+                free &= free - 1;
+                if((mBetweenMasks[tail * nodeCount + i] & ~used) == 0)
                 {
-                    for(int j = 1; j < gcd; j++)
-                    {
-                        Point inside = new Point(tail.x + delta.x / gcd * j,tail.y + delta.y / gcd * j);
-                        if(nodeAvailList.contains(inside))
-                        {
-                            nodeCandidatesList.remove(i);
-                            i--;
-                            break;
-                        }
-                    }
+                    candidates[candidateCount++] = i;
                 }
             }
-            Point next =
-                    nodeCandidatesList.get(mRng.nextInt(nodeCandidatesList.size()));
-            // remove from consideration and add to pattern
-            nodeAvailList.remove(next);
-            pattern.add(next);
-            tail = next;
+            if(recorder != null)
+            {
+                recorder.recordStep(candidateCount,
+                        Long.bitCount(allNodes & ~used) - candidateCount);
+            }
+            tail = candidates[mRng.nextInt(candidateCount)];
+            used |= 1L << tail;
+            out[length] = tail;
         }
-        return pattern;
+        return length;
+    }
+
+    // Random walk for larger grids, where a pairwise table would be too big.
+    // The free nodes are kept as a sparse set so a step only looks at nodes
+    // still available, and whether a move jumps an unused node is checked by
+    // stepping along the line between the two.
+    private int walkSparse(int[] out, int pathLen)
+    {
+        int nodeCount = mNodeCount;
+        long[] used = mUsedWords;
+        int[] candidates = mCandidates;
+        int[] free = mFreeNodes;
+        int[] freePositions = mFreePositions;
+        for(int i = 0; i < used.length; i++)
+        {
+            used[i] = 0;
+        }
+        for(int i = 0; i < nodeCount; i++)
+        {
+            free[i] = i;
+            freePositions[i] = i;
+        }
+        int freeCount = nodeCount;
+        GenerationMetrics.Recorder recorder = mRecorder;
+
+        int tail = mRng.nextInt(nodeCount);
+        int length = 0;
+        while(true)
+        {
+            // take "tail" out of the free set by swapping in the last one
+            int last = free[--freeCount];
+            free[freePositions[tail]] = last;
+            freePositions[last] = freePositions[tail];
+            used[tail >>> 6] |= 1L << tail;
+            out[length++] = tail;
+            if(length >= pathLen)
+            {
+                return length;
+            }
+
+            int candidateCount = 0;
+            for(int i = 0; i < freeCount; i++)
+            {
+                if(!isBlocked(tail, free[i], used))
+                {
+                    candidates[candidateCount++] = free[i];
+                }
+            }
+            if(recorder != null)
+            {
+                recorder.recordStep(candidateCount,
+                        freeCount - candidateCount);
+            }
+            tail = candidates[mRng.nextInt(candidateCount)];
+        }
+    }
+
+    // Random walk that only ever steps to nodes the constraints allow and
+    // from which they can still be met within the chosen length.  Since the
+    // constraints' estimates are lower bounds a walk can still get stuck, in
+    // which case it returns -1 for the caller to start over with a fresh
+    // length.  The estimates never rise as a pattern grows, so a constraint
+    // is only asked about each candidate when it has no nodes to spare, and
+    // never again once met.
+    private int walkConstrained(int[] out, int pathMin, int pathRange)
+    {
+        long[] used = mUsedWords;
+        int[] candidates = mCandidates;
+        int[] needs = mConstraintNeeds;
+        GenerationMetrics.Recorder recorder = mRecorder;
+        int pathLen = mRng.nextInt(pathRange) + pathMin;
+        for(int i = 0; i < used.length; i++)
+        {
+            used[i] = 0;
+        }
+        for(int i = 0; i < needs.length; i++)
+        {
+            needs[i] = -1;
+        }
+        int length = 0;
+        for(; length < pathLen; length++)
+        {
+            int spare = pathLen - length - updateNeeds(out, length);
+            if(spare < 0)
+            {
+                break;
+            }
+            int moveCount = findMoves(out, length, used, candidates);
+            int candidateCount = 0;
+            for(int i = 0; i < moveCount; i++)
+            {
+                if(canExtend(out, length, candidates[i],
+                            spare == 0 ? pathLen - length : 0))
+                {
+                    candidates[candidateCount++] = candidates[i];
+                }
+            }
+            if(recorder != null && length > 0)
+            {
+                recorder.recordStep(candidateCount,
+                        mNodeCount - length - candidateCount);
+            }
+            if(candidateCount == 0)
+            {
+                break;
+            }
+            int node = candidates[mRng.nextInt(candidateCount)];
+            used[node >>> 6] |= 1L << node;
+            out[length] = node;
+        }
+        return length == pathLen ? length : -1;
+    }
+
+    // True if every constraint lets "node" follow the first "length" nodes
+    // of "pattern", and every constraint still needing "tightNeeds" nodes
+    // needs fewer with it; 0 skips that second check.
+    boolean canExtend(int[] pattern, int length, int node,
+            int tightNeeds)
+    {
+        PatternConstraint[] constraints = mConstraints;
+        for(int i = 0; i < constraints.length; i++)
+        {
+            if(!constraints[i].allows(pattern, length, node, mGridLength))
+            {
+                return false;
+            }
+        }
+        if(tightNeeds == 0)
+        {
+            return true;
+        }
+        // try the node in place, it gets overwritten if not picked
+        pattern[length] = node;
+        for(int i = 0; i < constraints.length; i++)
+        {
+            if(mConstraintNeeds[i] == tightNeeds && constraints[i]
+                    .nodesStillNeeded(pattern, length + 1, tightNeeds,
+                        mGridLength)
+                    >= tightNeeds)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // refreshes mConstraintNeeds for the first "length" nodes of "pattern",
+    // skipping constraints already met, and returns the largest
+    private int updateNeeds(int[] pattern, int length)
+    {
+        int[] needs = mConstraintNeeds;
+        int needed = 0;
+        for(int i = 0; i < needs.length; i++)
+        {
+            if(needs[i] != 0)
+            {
+                needs[i] = mConstraints[i]
+                    .nodesStillNeeded(pattern, length, needs[i], mGridLength);
+                needed = Math.max(needed, needs[i]);
+            }
+        }
+        return needed;
+    }
+
+    // true if the finished pattern follows every constraint
+    boolean meetsConstraints(int[] pattern, int length)
+    {
+        for(int i = 0; i < mConstraints.length; i++)
+        {
+            PatternConstraint constraint = mConstraints[i];
+            for(int n = 0; n < length; n++)
+            {
+                if(!constraint.allows(pattern, n, pattern[n], mGridLength))
+                {
+                    return false;
+                }
+            }
+            if(constraint.nodesStillNeeded(pattern, length, -1, mGridLength)
+                    > 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean passesFilters(int[] pattern, int length)
+    {
+        for(int i = 0; i < mFilters.length; i++)
+        {
+            if(mFilters[i].rejects(pattern, length, mGridLength))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Writes the unused nodes that can follow the first "length" nodes of
+    // "pattern" without jumping an unused node into "moves", in ascending
+    // order, and returns how many there are
+    int findMoves(int[] pattern, int length, long[] used,
+            int[] moves)
+    {
+        int nodeCount = mNodeCount;
+        int moveCount = 0;
+        if(mBetweenMasks != null)
+        {
+            long free = (nodeCount == 64 ? -1L : (1L << nodeCount) - 1)
+                & ~used[0];
+            int rowStart = length == 0 ? 0 : pattern[length - 1] * nodeCount;
+            while(free != 0)
+            {
+                int node = Long.numberOfTrailingZeros(free);
+                free &= free - 1;
+                if(length == 0
+                        || (mBetweenMasks[rowStart + node] & ~used[0]) == 0)
+                {
+                    moves[moveCount++] = node;
+                }
+            }
+            return moveCount;
+        }
+        for(int node = 0; node < nodeCount; node++)
+        {
+            if((used[node >>> 6] & (1L << node)) == 0 && (length == 0
+                        || !isBlocked(pattern[length - 1], node, used)))
+            {
+                moves[moveCount++] = node;
+            }
+        }
+        return moveCount;
+    }
+
+    // true if an unused node lies between "from" and "to"
+    private boolean isBlocked(int from, int to, long[] used)
+    {
+        int gridLength = mGridLength;
+        int dx = to % gridLength - from % gridLength;
+        int dy = to / gridLength - from / gridLength;
+        int gcd = mGcds[Math.abs(dx) * gridLength + Math.abs(dy)];
+        if(gcd < 2)
+        {
+            return false;
+        }
+        int step = dy / gcd * gridLength + dx / gcd;
+        int between = from;
+        for(int j = 1; j < gcd; j++)
+        {
+            between += step;
+            if((used[between >>> 6] & (1L << between)) == 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // claims a random free rank while the set has room, and otherwise the
+    // next free one after a random rank.  Every try lands with the chance
+    // the set is still free, so draws stay uniform until the set is about
+    // 90% full; past that the scan wins often enough that a pattern after
+    // a long run of issued ones comes up several times as often as the
+    // rest (around 7x on 3x3 at 99% full), but a draw never takes more
+    // than UNSEEN_TRIES probes and one scan
+    private int generateUnseen(int[] out)
+    {
+        PatternIndex index = mSeenSet.getIndex();
+        if(index.getGridLength() != mGridLength
+                || index.getMinNodes() != mMinNodes
+                || index.getMaxNodes() != mMaxNodes)
+        {
+            throw new IllegalStateException(
+                    "seen set does not match the generator settings");
+        }
+        long size = index.size();
+        for(int i = 0; i < UNSEEN_TRIES
+                && mSeenSet.getClaimedCount() < size; i++)
+        {
+            long rank = nextLong(size);
+            if(mSeenSet.claim(rank))
+            {
+                return index.unrank(rank, out);
+            }
+        }
+        long rank = mSeenSet.claimFrom(nextLong(size));
+        if(rank < 0)
+        {
+            throw new IllegalStateException("every pattern has been issued");
+        }
+        return index.unrank(rank, out);
+    }
+
+    // index to draw from in MODE_UNIFORM, or null to walk
+    private PatternIndex getUniformIndex()
+    {
+        if(mMode != MODE_UNIFORM)
+        {
+            return null;
+        }
+        if(!isUniformSupported())
+        {
+            throw new IllegalStateException(
+                    "uniform mode needs a grid of at most "
+                    + PatternCounter.MAX_GRID_LENGTH + "x"
+                    + PatternCounter.MAX_GRID_LENGTH);
+        }
+        if(mUniformIndex == null)
+        {
+            mUniformIndex =
+                new PatternIndex(mGridLength, Math.max(mMinNodes, 1),
+                        mMaxNodes);
+        }
+        return mUniformIndex;
     }
 
     //
@@ -93,27 +595,153 @@ public class PatternGenerator
 
     public void setGridLength(int length)
     {
-        // build the prototype set to copy from later
-        List<Point> allNodes = new ArrayList<Point>();
-        for(int y = 0; y < length; y++)
+        if(mCandidates != null && length == mGridLength)
         {
-            for(int x = 0; x < length; x++)
-            {
-                allNodes.add(new Point(x,y));
-            }
+            return;
         }
-        mAllNodes = allNodes;
-
+        int nodeCount = length * length;
+        mNodeCount = nodeCount;
+        mUniformIndex = null;
         mGridLength = length;
+        mGridModel = GridModel.get(length);
+        mBetweenMasks = mGridModel.getBetweenMasks();
+        mGcds = mGridModel.getGcds();
+        mCandidates = new int[nodeCount];
+        mUsedWords = new long[(nodeCount + 63) / 64];
+        mFreeNodes = new int[nodeCount];
+        mFreePositions = new int[nodeCount];
     }
     public int getGridLength()
     {
         return mGridLength;
     }
 
+    // every node of the grid in row-major order, as new Points
+    public List<Point> getAllNodes()
+    {
+        return mGridModel.getNodes();
+    }
+
+    public GridModel getGridModel()
+    {
+        return mGridModel;
+    }
+
+    public void setRandomSource(RandomSource rng)
+    {
+        mRng = rng;
+    }
+    public RandomSource getRandomSource()
+    {
+        return mRng;
+    }
+
+    public void setMode(int mode)
+    {
+        mMode = mode;
+    }
+    public int getMode()
+    {
+        return mMode;
+    }
+    // true if the generators would be copies of each other, see
+    // PatternGenerator(PatternGenerator)
+    boolean hasSameConfiguration(PatternGenerator other)
+    {
+        return mGridLength == other.mGridLength
+            && mMinNodes == other.mMinNodes
+            && mMaxNodes == other.mMaxNodes
+            && mMode == other.mMode
+            && mRng == other.mRng
+            && mSeenSet == other.mSeenSet
+            && mMetrics == other.mMetrics
+            && Arrays.equals(mConstraints, other.mConstraints)
+            && Arrays.equals(mFilters, other.mFilters);
+    }
+
+    // whether MODE_UNIFORM can be used with the current grid
+    public boolean isUniformSupported()
+    {
+        return PatternCounter.isSupported(mGridLength);
+    }
+
+    // While set, patterns never repeat; the set's index must cover the same
+    // grid and length range as this generator, and a set may be shared by
+    // generators on several threads.  Pass null to turn this off.
+    public void setSeenSet(SeenPatternSet seenSet)
+    {
+        mSeenSet = seenSet;
+    }
+    public SeenPatternSet getSeenSet()
+    {
+        return mSeenSet;
+    }
+
+    // Constraints apply in every mode.  Walks are steered around patterns
+    // that would break them; uniform and no-repeat draws are retried until
+    // one passes.
+    public void addConstraint(PatternConstraint constraint)
+    {
+        PatternConstraint[] constraints =
+            new PatternConstraint[mConstraints.length + 1];
+        System.arraycopy(mConstraints, 0, constraints, 0, mConstraints.length);
+        constraints[mConstraints.length] = constraint;
+        mConstraints = constraints;
+        mConstraintNeeds = new int[constraints.length];
+    }
+    public void removeConstraint(PatternConstraint constraint)
+    {
+        List<PatternConstraint> constraints =
+            new ArrayList<PatternConstraint>(getConstraints());
+        if(constraints.remove(constraint))
+        {
+            mConstraints = constraints.toArray(
+                    new PatternConstraint[constraints.size()]);
+            mConstraintNeeds = new int[mConstraints.length];
+        }
+    }
+    public List<PatternConstraint> getConstraints()
+    {
+        return Arrays.asList(mConstraints.clone());
+    }
+
+    // Filters veto finished patterns, which are then drawn again
+    public void addFilter(PatternFilter filter)
+    {
+        PatternFilter[] filters = new PatternFilter[mFilters.length + 1];
+        System.arraycopy(mFilters, 0, filters, 0, mFilters.length);
+        filters[mFilters.length] = filter;
+        mFilters = filters;
+    }
+    public void removeFilter(PatternFilter filter)
+    {
+        List<PatternFilter> filters =
+            new ArrayList<PatternFilter>(getFilters());
+        if(filters.remove(filter))
+        {
+            mFilters = filters.toArray(new PatternFilter[filters.size()]);
+        }
+    }
+    public List<PatternFilter> getFilters()
+    {
+        return Arrays.asList(mFilters.clone());
+    }
+
+    // Records what generating costs into "metrics", which may be shared
+    // with other generators; null turns recording off
+    public void setMetrics(GenerationMetrics metrics)
+    {
+        mMetrics = metrics;
+    }
+    public GenerationMetrics getMetrics()
+    {
+        return mMetrics;
+    }
+
     public void setMinNodes(int nodes)
     {
         mMinNodes = nodes;
+        mUniformIndex = null;
     }
     public int getMinNodes()
     {
@@ -123,6 +751,7 @@ public class PatternGenerator
     public void setMaxNodes(int nodes)
     {
         mMaxNodes = nodes;
+        mUniformIndex = null;
     }
     public int getMaxNodes()
     {
@@ -133,26 +762,29 @@ public class PatternGenerator
     // Helper methods
     //
 
-    public int computeGcd(int a, int b)
-    /* Implementation taken from
-     * http://en.literateprograms.org/Euclidean_algorithm_(Java)
-     * Accessed on 12/28/10
-     */
+    // uniformly distributed in [0, bound), like RandomSource.nextInt()
+    protected long nextLong(long bound)
     {
-        if(b > a)
+        if(bound <= 0)
         {
-            int temp = a;
-            a = b;
-            b = temp;
+            throw new IllegalArgumentException("bound must be positive");
         }
-
-        while(b != 0)
+        if(bound <= Integer.MAX_VALUE)
+        {
+            return mRng.nextInt((int) bound);
+        }
+        long bits, value;
+        do
         {
-            int m = a % b;
-            a = b;
-            b = m;
+            bits = mRng.nextLong() >>> 1;
+            value = bits % bound;
         }
+        while(bits - value + (bound - 1) < 0);
+        return value;
+    }
 
-        return a;
+    public int computeGcd(int a, int b)
+    {
+        return GridModel.gcd(a, b);
     }
 }
@@ -0,0 +1,299 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+// Numbers every valid pattern of a grid with a length in [minNodes, maxNodes]
+// densely from 0 to size() - 1 and back.  Patterns are ordered by first node,
+// then a pattern comes right before its own extensions, then by next node;
+// both directions cost one scan of the free nodes per pattern node.  Built on
+// PatternCounter's completion tables, so limited to grids of up to 4x4.  The
+// tables are shared with every other index of the same grid and maximum or
+// minimum length.
+public class PatternIndex
+{
+    protected final int mGridLength;
+    protected final int mMinNodes;
+    protected final int mMaxNodes;
+    protected final int mNodeCount;
+    protected final long[] mBetweenMasks;
+    // ways to finish within maxNodes, and within minNodes - 1 (null if
+    // nothing is that short) to take off those stopping too soon
+    protected final CompletionTable mCeiling;
+    protected final CompletionTable mFloor;
+    protected final long mSize;
+
+    public PatternIndex(int gridLength)
+    {
+        this(gridLength, 1, gridLength * gridLength);
+    }
+
+    // maxNodes past the number of nodes means every length from minNodes up
+    public PatternIndex(int gridLength, int minNodes, int maxNodes)
+    {
+        maxNodes = Math.min(maxNodes, gridLength * gridLength);
+        if(gridLength < 1 || minNodes < 1 || minNodes > maxNodes)
+        {
+            throw new IllegalArgumentException("bad pattern range: "
+                    + gridLength + ", " + minNodes + ", " + maxNodes);
+        }
+        mGridLength = gridLength;
+        mMinNodes = minNodes;
+        mMaxNodes = maxNodes;
+        mNodeCount = gridLength * gridLength;
+        mCeiling = PatternCounter.getCompletionTable(gridLength, maxNodes);
+        mFloor = minNodes > 1
+            ? PatternCounter.getCompletionTable(gridLength, minNodes - 1)
+            : null;
+        mBetweenMasks = GridModel.get(gridLength).getBetweenMasks();
+
+        long size = 0;
+        for(int node = 0; node < mNodeCount; node++)
+        {
+            size += startCompletions(node);
+        }
+        mSize = size;
+    }
+
+    // position of the pattern given by the first "length" node indices of
+    // "pattern"
+    public long rank(int[] pattern, int length)
+    {
+        if(length < 1 || length < mMinNodes || length > mMaxNodes
+                || length > mNodeCount)
+        {
+            throw new IllegalArgumentException(
+                    "pattern length out of range: " + length);
+        }
+        int tail = checkNode(pattern[0]);
+        long rank = 0;
+        for(int node = 0; node < tail; node++)
+        {
+            rank += startCompletions(node);
+        }
+        int used = 1 << tail;
+        for(int i = 1; i < length; i++)
+        {
+            int node = checkNode(pattern[i]);
+            if((used & (1 << node)) != 0
+                    || (mBetweenMasks[tail * mNodeCount + node] & ~used) != 0)
+            {
+                throw new IllegalArgumentException(
+                        "not a valid pattern, bad move at " + i);
+            }
+            // stopping short comes first, then every smaller next node
+            if(i >= mMinNodes)
+            {
+                rank++;
+            }
+            int free = ~used & ((1 << node) - 1);
+            while(free != 0)
+            {
+                int next = Integer.numberOfTrailingZeros(free);
+                free &= free - 1;
+                if((mBetweenMasks[tail * mNodeCount + next] & ~used) == 0)
+                {
+                    rank += completions(used | (1 << next), next);
+                }
+            }
+            used |= 1 << node;
+            tail = node;
+        }
+        return rank;
+    }
+
+    // writes the node indices of pattern number "rank" into "out" and
+    // returns its length
+    public int unrank(long rank, int[] out)
+    {
+        if(rank < 0 || rank >= mSize)
+        {
+            throw new IndexOutOfBoundsException(
+                    "rank " + rank + " not below " + mSize);
+        }
+        int tail = 0;
+        for(; tail < mNodeCount; tail++)
+        {
+            long ways = startCompletions(tail);
+            if(rank < ways)
+            {
+                break;
+            }
+            rank -= ways;
+        }
+        int used = 1 << tail;
+        out[0] = tail;
+        int length = 1;
+        while(true)
+        {
+            if(length >= mMinNodes && length <= mMaxNodes)
+            {
+                if(rank == 0)
+                {
+                    return length;
+                }
+                rank--;
+            }
+            int free = ~used & ((1 << mNodeCount) - 1);
+            while(free != 0)
+            {
+                int next = Integer.numberOfTrailingZeros(free);
+                free &= free - 1;
+                if((mBetweenMasks[tail * mNodeCount + next] & ~used) != 0)
+                {
+                    continue;
+                }
+                long ways = completions(used | (1 << next), next);
+                if(rank < ways)
+                {
+                    tail = next;
+                    break;
+                }
+                rank -= ways;
+            }
+            used |= 1 << tail;
+            out[length++] = tail;
+        }
+    }
+
+    // Turns the pattern in the first "length" entries of "pattern" into the
+    // one ranked right after it, in place, and returns its length, or 0 if
+    // it was the last one.  Cheaper than unranking every rank in turn.
+    public int next(int[] pattern, int length)
+    {
+        int used = 0;
+        for(int i = 0; i < length; i++)
+        {
+            used |= 1 << pattern[i];
+        }
+        // the first extension of this pattern, if it has any
+        if(length < mMaxNodes)
+        {
+            int next = nextViable(pattern[length - 1], used, -1);
+            if(next >= 0)
+            {
+                pattern[length] = next;
+                return descend(pattern, length + 1, used | (1 << next));
+            }
+        }
+        // otherwise the next sibling of the closest node that has one
+        while(length > 1)
+        {
+            int node = pattern[--length];
+            used &= ~(1 << node);
+            int next = nextViable(pattern[length - 1], used, node);
+            if(next >= 0)
+            {
+                pattern[length] = next;
+                return descend(pattern, length + 1, used | (1 << next));
+            }
+        }
+        for(int node = pattern[0] + 1; node < mNodeCount; node++)
+        {
+            if(startCompletions(node) > 0)
+            {
+                pattern[0] = node;
+                return descend(pattern, 1, 1 << node);
+            }
+        }
+        return 0;
+    }
+
+    //
+    // Accessors
+    //
+
+    // number of patterns covered, ranks run from 0 to size() - 1
+    public long size()
+    {
+        return mSize;
+    }
+
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+    public int getMinNodes()
+    {
+        return mMinNodes;
+    }
+    public int getMaxNodes()
+    {
+        return mMaxNodes;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private long startCompletions(int node)
+    {
+        return completions(1 << node, node);
+    }
+
+    // ways to finish the given pattern with a length in range
+    private long completions(int visited, int tail)
+    {
+        long ways = mCeiling.get(visited, tail);
+        if(mFloor != null && Integer.bitCount(visited) < mMinNodes)
+        {
+            ways -= mFloor.get(visited, tail);
+        }
+        return ways;
+    }
+
+    // smallest legal move from "tail" past "after" that still leads to a
+    // pattern in range, or -1
+    private int nextViable(int tail, int used, int after)
+    {
+        int free = ~used & ((1 << mNodeCount) - 1) & (-1 << (after + 1));
+        while(free != 0)
+        {
+            int next = Integer.numberOfTrailingZeros(free);
+            free &= free - 1;
+            if((mBetweenMasks[tail * mNodeCount + next] & ~used) == 0
+                    && completions(used | (1 << next), next) > 0)
+            {
+                return next;
+            }
+        }
+        return -1;
+    }
+
+    // extends a prefix with the smallest moves until it is long enough to
+    // be a pattern in range, which is the first pattern it leads to
+    private int descend(int[] pattern, int length, int used)
+    {
+        while(length < mMinNodes)
+        {
+            int next = nextViable(pattern[length - 1], used, -1);
+            pattern[length++] = next;
+            used |= 1 << next;
+        }
+        return length;
+    }
+
+    private int checkNode(int node)
+    {
+        if(node < 0 || node >= mNodeCount)
+        {
+            throw new IllegalArgumentException("no such node: " + node);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import in.shick.lockpatterngenerator.external.Point;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Keeps a few patterns ready on a background thread so the UI thread can
+// take one without waiting, however big the grid.  Patterns are made with a
+// copy of the generator last passed to configure() and tagged with it, so a
+// change of settings throws out everything made before it at once.  The
+// copy shares the generator's RandomSource, constraints and filters, which
+// must therefore be safe to use from the producer thread too.  The producer
+// blocks while the queue is full, and if generating fails it stops and
+// keeps the failure for take() to report.
+public class PatternPrefetcher
+{
+    public static final int DEFAULT_CAPACITY = 8;
+    // how often take() looks up from the queue to see if the producer died
+    private static final long TAKE_CHECK_MILLIS = 100;
+
+    protected final BlockingQueue<Ready> mReady;
+    protected volatile Settings mSettings;
+    protected Thread mThread;
+    // why the producer last stopped on its own, if it did
+    protected RuntimeException mFailure;
+
+    public PatternPrefetcher(int capacity)
+    {
+        mReady = new ArrayBlockingQueue<Ready>(capacity);
+    }
+
+    // makes patterns configured the way "generator" is now, dropping any
+    // made with other settings
+    public synchronized void configure(PatternGenerator generator)
+    {
+        if(mSettings != null
+                && mSettings.mGenerator.hasSameConfiguration(generator))
+        {
+            return;
+        }
+        mSettings = new Settings(new PatternGenerator(generator));
+        mReady.clear();
+    }
+
+    // starts the producer, or starts it again after it failed
+    public synchronized void start()
+    {
+        if(mSettings == null)
+        {
+            throw new IllegalStateException("configure() first");
+        }
+        if(mThread != null)
+        {
+            return;
+        }
+        mFailure = null;
+        mThread = new Thread(new Producer(), "pattern-prefetcher");
+        mThread.setDaemon(true);
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    // stops making patterns, keeping the ones already made
+    public synchronized void stop()
+    {
+        if(mThread == null)
+        {
+            return;
+        }
+        mThread.interrupt();
+        mThread = null;
+    }
+
+    // a ready pattern for the current settings, or null if there is none
+    // yet
+    public List<Point> poll()
+    {
+        Settings settings = mSettings;
+        Ready ready;
+        while((ready = mReady.poll()) != null)
+        {
+            if(ready.mSettings == settings)
+            {
+                return ready.mPattern;
+            }
+        }
+        return null;
+    }
+
+    // Waits for a pattern for the current settings, not to be called on the
+    // UI thread.  Returns null if the producer is stopped, and throws
+    // IllegalStateException if it stopped because generating failed.
+    public List<Point> take() throws InterruptedException
+    {
+        while(true)
+        {
+            Ready ready = mReady.poll(TAKE_CHECK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            if(ready != null)
+            {
+                if(ready.mSettings == mSettings)
+                {
+                    return ready.mPattern;
+                }
+                continue;
+            }
+            synchronized(this)
+            {
+                if(mFailure != null)
+                {
+                    throw new IllegalStateException(
+                            "pattern generation failed", mFailure);
+                }
+                if(mThread == null)
+                {
+                    return null;
+                }
+            }
+        }
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public int getReadyCount()
+    {
+        return mReady.size();
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return mThread != null;
+    }
+
+    //
+    // Inner classes
+    //
+
+    // a private copy of the configured generator, only ever copied again
+    private static class Settings
+    {
+        final PatternGenerator mGenerator;
+
+        Settings(PatternGenerator generator)
+        {
+            mGenerator = generator;
+        }
+    }
+
+    private static class Ready
+    {
+        final Settings mSettings;
+        final List<Point> mPattern;
+
+        Ready(Settings settings, List<Point> pattern)
+        {
+            mSettings = settings;
+            mPattern = pattern;
+        }
+    }
+
+    // Each run gets its own generator, so one that is still winding down
+    // after stop() never shares it with the next.  On the way out the
+    // producer clears mThread if it is still the current one, so start()
+    // can run a new one.
+    private class Producer implements Runnable
+    {
+        private PatternGenerator mGenerator;
+        private Settings mApplied;
+
+        @Override
+        public void run()
+        {
+            RuntimeException failure = null;
+            try
+            {
+                while(!Thread.currentThread().isInterrupted())
+                {
+                    Settings settings = mSettings;
+                    if(settings != mApplied)
+                    {
+                        mGenerator = new PatternGenerator(settings.mGenerator);
+                        mApplied = settings;
+                    }
+                    mReady.put(new Ready(settings, mGenerator.getPattern()));
+                }
+            }
+            catch(InterruptedException e)
+            {
+                // stopped
+            }
+            catch(RuntimeException e)
+            {
+                failure = e;
+            }
+            finally
+            {
+                synchronized(PatternPrefetcher.this)
+                {
+                    if(mThread == Thread.currentThread())
+                    {
+                        mThread = null;
+                        mFailure = failure;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+// Lazily walks the patterns ranked [from, to) by a PatternIndex, in rank
+// order, without ever holding more than one of them.  Works like a
+// java.util.Spliterator: tryAdvance() hands out one pattern at a time and
+// trySplit() hands the first half of what is left to a new range, so whole
+// pattern spaces can be cut into balanced pieces for worker threads.
+public class PatternRange
+{
+    protected final PatternIndex mIndex;
+    protected long mNext;
+    protected long mEnd;
+    // the last pattern handed out, stepped forward in place
+    protected int[] mCurrent;
+    protected int mCurrentLength;
+
+    public PatternRange(PatternIndex index)
+    {
+        this(index, 0, index.size());
+    }
+
+    public PatternRange(PatternIndex index, long from, long to)
+    {
+        if(from < 0 || from > to || to > index.size())
+        {
+            throw new IndexOutOfBoundsException(
+                    "bad range [" + from + ", " + to + ")");
+        }
+        mIndex = index;
+        mNext = from;
+        mEnd = to;
+        int gridLength = index.getGridLength();
+        mCurrent = new int[Math.max(gridLength * gridLength, 1)];
+    }
+
+    // cuts the pattern space into "parts" ranges of nearly equal size
+    public static PatternRange[] partition(PatternIndex index, int parts)
+    {
+        PatternRange[] ranges = new PatternRange[parts];
+        long size = index.size();
+        for(int i = 0; i < parts; i++)
+        {
+            ranges[i] = new PatternRange(index, size / parts * i
+                    + Math.min(i, size % parts), size / parts * (i + 1)
+                    + Math.min(i + 1, size % parts));
+        }
+        return ranges;
+    }
+
+    // writes the next pattern into "out" and returns its length, or returns
+    // 0 once the range is used up
+    public int tryAdvance(int[] out)
+    {
+        if(mNext >= mEnd)
+        {
+            return 0;
+        }
+        if(mCurrentLength == 0)
+        {
+            mCurrentLength = mIndex.unrank(mNext, mCurrent);
+        }
+        else
+        {
+            mCurrentLength = mIndex.next(mCurrent, mCurrentLength);
+        }
+        mNext++;
+        System.arraycopy(mCurrent, 0, out, 0, mCurrentLength);
+        return mCurrentLength;
+    }
+
+    // gives the first half of the remaining patterns to a new range and
+    // keeps the second, or returns null if there is too little left to split
+    public PatternRange trySplit()
+    {
+        long mid = mNext + (mEnd - mNext) / 2;
+        if(mid == mNext)
+        {
+            return null;
+        }
+        PatternRange prefix = new PatternRange(mIndex, mNext, mid);
+        mNext = mid;
+        mCurrentLength = 0;
+        return prefix;
+    }
+
+    public long estimateSize()
+    {
+        return mEnd - mNext;
+    }
+
+    public PatternIndex getIndex()
+    {
+        return mIndex;
+    }
+}
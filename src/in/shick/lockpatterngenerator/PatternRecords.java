@@ -0,0 +1,110 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// The nibble record PatternEncoder, PatternDecoder and PatternDictionary all
+// store patterns in: a 4-bit length - 1 and then a 4-bit index per node,
+// high nibble first after the length, for grids of up to 16 nodes.  Records
+// are read and written at absolute offsets, leaving buffer positions alone.
+// Also the buffer flush PatternDictionary and PatternTool write files with.
+public class PatternRecords
+{
+    private PatternRecords()
+    {
+    }
+
+    // writes all of "output" to "channel" and clears it for refilling
+    public static void flush(ByteBuffer output, WritableByteChannel channel)
+        throws IOException
+    {
+        output.flip();
+        while(output.hasRemaining())
+        {
+            channel.write(output);
+        }
+        output.clear();
+    }
+
+    //
+    // Helper methods
+    //
+
+    // bytes in the record of a pattern of "length" nodes
+    static int nibbleBytes(int length)
+    {
+        return length / 2 + 1;
+    }
+
+    // writes the record of the first "length" nodes of "pattern" at
+    // "offset" and returns the offset just past it
+    static int putNibbles(ByteBuffer out, int offset, int[] pattern,
+            int length)
+    {
+        int high = length - 1;
+        for(int i = 0; i < length; i++)
+        {
+            if(i % 2 == 0)
+            {
+                out.put(offset++, (byte) ((high << 4) | pattern[i]));
+            }
+            else
+            {
+                high = pattern[i];
+            }
+        }
+        if(length % 2 == 0)
+        {
+            out.put(offset++, (byte) (high << 4));
+        }
+        return offset;
+    }
+
+    // length of the record at "offset"
+    static int nibbleLength(ByteBuffer in, int offset)
+    {
+        return ((in.get(offset) & 0xff) >>> 4) + 1;
+    }
+
+    // node "n" of the record at "offset"
+    static int nibbleNode(ByteBuffer in, int offset, int n)
+    {
+        int packed = in.get(offset + (n + 1) / 2) & 0xff;
+        return n % 2 == 0 ? packed & 0x0f : packed >>> 4;
+    }
+
+    // copies the "length" nodes of the record at "offset" into "out"
+    static void getNibbles(ByteBuffer in, int offset, int length, int[] out)
+    {
+        int packed = in.get(offset) & 0xff;
+        out[0] = packed & 0x0f;
+        for(int n = 1; n < length; n += 2)
+        {
+            packed = in.get(++offset) & 0xff;
+            out[n] = packed >>> 4;
+            if(n + 1 < length)
+            {
+                out[n + 1] = packed & 0x0f;
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.util.Arrays;
+
+// Finds stored patterns within a small edit distance (node insertions,
+// deletions and substitutions) of a given one, to keep near-copies of
+// issued or leaked patterns from being handed out.
+//
+// Every entry is cut into maxDistance + 2 pieces.  d <= maxDistance edits
+// can touch at most d of them, so any pattern that close still holds two
+// of the pieces untouched, each shifted by no more than d nodes.  Each pair
+// of pieces is hashed along with the entry's length, and a search looks up
+// the few pairs of slices of the pattern that could be such pieces, so only
+// entries sharing a good share of the pattern ever reach the full distance
+// check.  On small grids a search one edit out is cheaper still by looking
+// up every neighbouring pattern whole.  Entries, keys and hash chains all
+// live in flat int arrays.  Searching is thread-safe, adding is not.
+public class PatternSimilarityIndex implements PatternFilter
+{
+    // looking for patterns one edit away tries all of them outright, as
+    // long as there are no more than this
+    public static final int NEIGHBOUR_LIMIT = 1024;
+
+    protected final int mGridLength;
+    protected final int mMaxDistance;
+    protected final int mPieces;
+    protected final int mRecords;
+    // entry i is mNodes[mStarts[i], mStarts[i] + mLengths[i])
+    protected int[] mNodes;
+    protected int mNodeCount;
+    protected int[] mStarts;
+    protected int[] mLengths;
+    protected int mSize;
+    // entry i has records i * mRecords + key, one for every pair of pieces
+    // (see pairKey()) and a last one holding the whole entry for exact
+    // lookups; each is chained from the bucket its hash picks
+    protected int[] mBuckets;
+    protected int[] mNext;
+    protected int[] mHashes;
+    // search scratch space for each thread: two rows of the distance table
+    // and a pattern
+    protected final ThreadLocal<int[][]> mScratch =
+        new ThreadLocal<int[][]>() {
+            @Override
+            protected int[][] initialValue() {
+                return new int[3][18];
+            }
+        };
+
+    // "maxDistance" is both the furthest containsWithin() can look and how
+    // close to an entry a pattern must be for rejects() to turn it down
+    public PatternSimilarityIndex(int gridLength, int maxDistance)
+    {
+        if(maxDistance < 0)
+        {
+            throw new IllegalArgumentException("maxDistance must be >= 0");
+        }
+        mGridLength = gridLength;
+        mMaxDistance = maxDistance;
+        mPieces = maxDistance + 2;
+        mRecords = pairKey(mPieces - 2, mPieces - 1) + 2;
+        mNodes = new int[1024];
+        mStarts = new int[64];
+        mLengths = new int[64];
+        mNext = new int[64 * mRecords];
+        mHashes = new int[64 * mRecords];
+        mBuckets = new int[Integer.highestOneBit(mNext.length) * 2];
+        Arrays.fill(mBuckets, -1);
+    }
+
+    // adds the pattern unless it is already in, and returns whether it was
+    // added
+    public boolean add(int[] pattern, int length)
+    {
+        if(containsWithin(pattern, length, 0))
+        {
+            return false;
+        }
+        int first = store(pattern, length) * mRecords;
+        for(int second = 1; second < mPieces; second++)
+        {
+            int secondStart = pieceStart(length, second);
+            int secondSize = pieceStart(length, second + 1) - secondStart;
+            for(int piece = 0; piece < second; piece++)
+            {
+                int start = pieceStart(length, piece);
+                int size = pieceStart(length, piece + 1) - start;
+                int key = pairKey(piece, second);
+                link(first + key, hash(length, key, pattern, start, size,
+                            secondStart, secondSize));
+            }
+        }
+        link(first + mRecords - 1, hash(length, mRecords - 1, pattern));
+        return true;
+    }
+
+    // true if some entry is within "distance" edits of the pattern
+    public boolean containsWithin(int[] pattern, int length, int distance)
+    {
+        if(distance > mMaxDistance)
+        {
+            throw new IllegalArgumentException("distance " + distance
+                    + " is past the index's " + mMaxDistance);
+        }
+        if(mSize == 0 || distance < 0)
+        {
+            return false;
+        }
+        int[][] rows = mScratch.get();
+        if(rows[0].length <= length + 1)
+        {
+            rows[0] = new int[length + 2];
+            rows[1] = new int[length + 2];
+            rows[2] = new int[length + 2];
+        }
+        if(distance == 0)
+        {
+            return probeWhole(pattern, length, rows);
+        }
+        int nodes = mGridLength * mGridLength;
+        if(distance == 1 && (2 * nodes + 1) * (length + 1) <= NEIGHBOUR_LIMIT)
+        {
+            return probeNeighbours(pattern, length, nodes, rows);
+        }
+        // d edits leave two of any d + 2 pieces whole, so only pairs from
+        // the last and longest d + 2 need looking up
+        int lowest = mPieces - distance - 2;
+        for(int entryLength = Math.max(length - distance, 0);
+                entryLength <= length + distance; entryLength++)
+        {
+            for(int second = lowest + 1; second < mPieces; second++)
+            {
+                int secondStart = pieceStart(entryLength, second);
+                int secondSize =
+                    pieceStart(entryLength, second + 1) - secondStart;
+                for(int piece = lowest; piece < second; piece++)
+                {
+                    int start = pieceStart(entryLength, piece);
+                    int size = pieceStart(entryLength, piece + 1) - start;
+                    if(probePair(pattern, length, entryLength, distance,
+                                piece, start, size, second, secondStart,
+                                secondSize, rows))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean rejects(int[] pattern, int length, int gridLength)
+    {
+        return gridLength == mGridLength
+            && containsWithin(pattern, length, mMaxDistance);
+    }
+
+    //
+    // Accessors / Mutators
+    //
+
+    public int size()
+    {
+        return mSize;
+    }
+
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+
+    public int getMaxDistance()
+    {
+        return mMaxDistance;
+    }
+
+    //
+    // Helper methods
+    //
+
+    private int pieceStart(int length, int piece)
+    {
+        return piece * length / mPieces;
+    }
+
+    private static int pairKey(int piece, int second)
+    {
+        return second * (second - 1) / 2 + piece;
+    }
+
+    // tries every place the two pieces could have shifted to in the pattern
+    private boolean probePair(int[] pattern, int length, int entryLength,
+            int distance, int piece, int start, int size, int second,
+            int secondStart, int secondSize, int[][] rows)
+    {
+        int key = pairKey(piece, second);
+        for(int from = Math.max(start - distance, 0);
+                from <= start + distance && from + size <= length; from++)
+        {
+            for(int secondFrom = Math.max(secondStart - distance,
+                        from + size);
+                    secondFrom <= secondStart + distance
+                    && secondFrom + secondSize <= length; secondFrom++)
+            {
+                if(probe(pattern, length, entryLength, distance, key,
+                            hash(entryLength, key, pattern, from, size,
+                                secondFrom, secondSize), rows))
+                {
+                    return true;
+                }
+                if(secondSize == 0)
+                {
+                    // an empty piece is found everywhere
+                    break;
+                }
+            }
+            if(size == 0)
+            {
+                break;
+            }
+        }
+        return false;
+    }
+
+    // whether this pattern or one a deletion, substitution or insertion
+    // away from it is an entry
+    private boolean probeNeighbours(int[] pattern, int length, int nodes,
+            int[][] rows)
+    {
+        if(probeWhole(pattern, length, rows))
+        {
+            return true;
+        }
+        int[] neighbour = rows[2];
+        for(int skip = 0; skip < length; skip++)
+        {
+            System.arraycopy(pattern, 0, neighbour, 0, skip);
+            System.arraycopy(pattern, skip + 1, neighbour, skip,
+                    length - skip - 1);
+            if(probeWhole(neighbour, length - 1, rows))
+            {
+                return true;
+            }
+        }
+        System.arraycopy(pattern, 0, neighbour, 0, length);
+        for(int i = 0; i < length; i++)
+        {
+            for(int node = 0; node < nodes; node++)
+            {
+                neighbour[i] = node;
+                if(node != pattern[i] && probeWhole(neighbour, length, rows))
+                {
+                    return true;
+                }
+            }
+            neighbour[i] = pattern[i];
+        }
+        for(int at = length; at >= 0; at--)
+        {
+            // shift the tail one further along each time round
+            if(at < length)
+            {
+                neighbour[at + 1] = pattern[at];
+            }
+            for(int node = 0; node < nodes; node++)
+            {
+                neighbour[at] = node;
+                if(probeWhole(neighbour, length + 1, rows))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean probeWhole(int[] pattern, int length, int[][] rows)
+    {
+        return probe(pattern, length, length, 0, mRecords - 1,
+                hash(length, mRecords - 1, pattern), rows);
+    }
+
+    // whether an entry of "entryLength" nodes filed under the key and hash
+    // lies within "distance" of the pattern
+    private boolean probe(int[] pattern, int length, int entryLength,
+            int distance, int key, int hash, int[][] rows)
+    {
+        for(int record = mBuckets[hash & (mBuckets.length - 1)]; record >= 0;
+                record = mNext[record])
+        {
+            int entry = record / mRecords;
+            if(record - entry * mRecords == key
+                    && mHashes[record] == hash
+                    && mLengths[entry] == entryLength
+                    && within(pattern, length, entry, distance, rows))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int hash(int length, int key, int[] pattern)
+    {
+        return hash(length, key, pattern, 0, length, 0, 0);
+    }
+
+    private static int hash(int length, int key, int[] pattern, int from,
+            int size, int secondFrom, int secondSize)
+    {
+        long hash = length * 31L + key;
+        for(int i = from; i < from + size; i++)
+        {
+            hash = hash * 31 + pattern[i] + 1;
+        }
+        for(int i = secondFrom; i < secondFrom + secondSize; i++)
+        {
+            hash = hash * 31 + pattern[i] + 1;
+        }
+        return (int) RandomSource.SplitMix.mix(hash);
+    }
+
+    private int store(int[] pattern, int length)
+    {
+        if(mSize == mStarts.length)
+        {
+            int capacity = mSize * 2;
+            mStarts = grow(mStarts, capacity);
+            mLengths = grow(mLengths, capacity);
+            mNext = grow(mNext, capacity * mRecords);
+            mHashes = grow(mHashes, capacity * mRecords);
+        }
+        if(mNodeCount + length > mNodes.length)
+        {
+            mNodes = grow(mNodes, Math.max(mNodes.length * 2,
+                        mNodeCount + length));
+        }
+        System.arraycopy(pattern, 0, mNodes, mNodeCount, length);
+        int entry = mSize++;
+        mStarts[entry] = mNodeCount;
+        mLengths[entry] = length;
+        mNodeCount += length;
+        return entry;
+    }
+
+    private void link(int record, int hash)
+    {
+        if(record >= mBuckets.length)
+        {
+            // keep chains short by doubling the buckets and rehashing
+            mBuckets = new int[mBuckets.length * 2];
+            Arrays.fill(mBuckets, -1);
+            for(int i = 0; i < record; i++)
+            {
+                int bucket = mHashes[i] & (mBuckets.length - 1);
+                mNext[i] = mBuckets[bucket];
+                mBuckets[bucket] = i;
+            }
+        }
+        int bucket = hash & (mBuckets.length - 1);
+        mHashes[record] = hash;
+        mNext[record] = mBuckets[bucket];
+        mBuckets[bucket] = record;
+    }
+
+    private static int[] grow(int[] array, int capacity)
+    {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    // whether the Levenshtein distance between the pattern and an entry is
+    // at most "distance", giving up once a whole row of the table is past it
+    private boolean within(int[] pattern, int length, int entry,
+            int distance, int[][] rows)
+    {
+        int start = mStarts[entry];
+        int entryLength = mLengths[entry];
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for(int i = 0; i <= length; i++)
+        {
+            previous[i] = i;
+        }
+        for(int j = 1; j <= entryLength; j++)
+        {
+            int node = mNodes[start + j - 1];
+            int best = j;
+            current[0] = j;
+            for(int i = 1; i <= length; i++)
+            {
+                int cost = pattern[i - 1] == node ? 0 : 1;
+                current[i] = Math.min(previous[i - 1] + cost,
+                        Math.min(previous[i], current[i - 1]) + 1);
+                best = Math.min(best, current[i]);
+            }
+            if(best > distance)
+            {
+                return false;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[length] <= distance;
+    }
+}
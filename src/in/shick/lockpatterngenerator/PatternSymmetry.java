@@ -0,0 +1,184 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+// Patterns that are rotations or reflections of each other form an orbit of
+// up to eight.  canonicalize() picks one member of each orbit, the
+// lexicographically smallest, so a corpus can be stored, counted or
+// deduplicated once per orbit.  An instance holds one grid's permutation
+// table from GridModel, so make one per grid and keep it rather than going
+// through GridModel.get() per pattern; nothing is allocated per pattern and
+// an instance may be shared between threads.
+public class PatternSymmetry
+{
+    protected final int mGridLength;
+    protected final int mNodeCount;
+    protected final int[] mSymmetries;
+
+    public PatternSymmetry(int gridLength)
+    {
+        this(GridModel.get(gridLength));
+    }
+    public PatternSymmetry(GridModel model)
+    {
+        mGridLength = model.getGridLength();
+        mNodeCount = model.getNodeCount();
+        mSymmetries = model.getSymmetries();
+    }
+
+    // Rewrites the first "length" nodes of "pattern" as the representative
+    // of its orbit and returns the GridModel symmetry that took it there
+    public int canonicalize(int[] pattern, int length)
+    {
+        int best = smallestImage(pattern, length);
+        if(best != 0)
+        {
+            map(best, pattern, length, pattern);
+        }
+        return best;
+    }
+
+    // true if the pattern already is its orbit's representative
+    public boolean isCanonical(int[] pattern, int length)
+    {
+        return smallestImage(pattern, length) == 0;
+    }
+
+    // how many distinct patterns the pattern's orbit holds: 1, 2, 4 or 8
+    public int orbitSize(int[] pattern, int length)
+    {
+        int[] symmetries = mSymmetries;
+        // the orbit is 8 over the number of symmetries fixing the pattern
+        int fixing = 0;
+        for(int symmetry = 0; symmetry < GridModel.SYMMETRIES; symmetry++)
+        {
+            int offset = symmetry * mNodeCount;
+            int i = 0;
+            while(i < length && symmetries[offset + pattern[i]] == pattern[i])
+            {
+                i++;
+            }
+            if(i == length)
+            {
+                fixing++;
+            }
+        }
+        return GridModel.SYMMETRIES / fixing;
+    }
+
+    // Writes the image of the first "length" nodes of "pattern" under one
+    // of GridModel's symmetries into "out", which may be "pattern" itself
+    public void map(int symmetry, int[] pattern, int length, int[] out)
+    {
+        int offset = symmetry * mNodeCount;
+        for(int i = 0; i < length; i++)
+        {
+            out[i] = mSymmetries[offset + pattern[i]];
+        }
+    }
+
+    // Canonicalizes, in place, every record from "records"' position to its
+    // limit, in the length-prefixed layout of
+    // PatternGenerator.generateBatch(); the position is left at the limit
+    public void canonicalizeAll(IntBuffer records)
+    {
+        int[] symmetries = mSymmetries;
+        int[] pattern = new int[Math.max(mNodeCount, 1)];
+        while(records.hasRemaining())
+        {
+            int length = records.get();
+            int start = records.position();
+            records.get(pattern, 0, length);
+            int best = smallestImage(pattern, length);
+            if(best != 0)
+            {
+                int offset = best * mNodeCount;
+                for(int i = 0; i < length; i++)
+                {
+                    records.put(start + i, symmetries[offset + pattern[i]]);
+                }
+            }
+        }
+    }
+
+    // copies a PatternEncoder stream with every pattern canonicalized and
+    // returns how many there were
+    public static long canonicalizeAll(PatternDecoder in, PatternEncoder out)
+        throws IOException
+    {
+        int gridLength = in.getGridLength();
+        PatternSymmetry symmetry = new PatternSymmetry(gridLength);
+        int[] pattern = new int[Math.max(gridLength * gridLength, 1)];
+        long count = 0;
+        int length;
+        while((length = in.read(pattern)) >= 0)
+        {
+            symmetry.canonicalize(pattern, length);
+            out.write(pattern, length);
+            count++;
+        }
+        return count;
+    }
+
+    //
+    // Accessors
+    //
+
+    public int getGridLength()
+    {
+        return mGridLength;
+    }
+
+    //
+    // Helper methods
+    //
+
+    // The symmetry giving the lexicographically smallest image of the first
+    // "length" nodes of "pattern", preferring the lowest on ties.  Images
+    // are compared node by node as they are mapped, and most are out of the
+    // running after the first node.
+    private int smallestImage(int[] pattern, int length)
+    {
+        int[] symmetries = mSymmetries;
+        int nodeCount = mNodeCount;
+        int best = 0;
+        for(int symmetry = 1; symmetry < GridModel.SYMMETRIES; symmetry++)
+        {
+            int offset = symmetry * nodeCount;
+            int bestOffset = best * nodeCount;
+            for(int i = 0; i < length; i++)
+            {
+                int node = symmetries[offset + pattern[i]];
+                int bestNode = symmetries[bestOffset + pattern[i]];
+                if(node != bestNode)
+                {
+                    if(node < bestNode)
+                    {
+                        best = symmetry;
+                    }
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+// Where PatternGenerator gets its randomness from.  Implementations are not
+// expected to be thread-safe unless they say so.
+public interface RandomSource
+{
+    // uniformly distributed in [0, bound)
+    int nextInt(int bound);
+    long nextLong();
+
+    //
+    // Implementations
+    //
+
+    // java.util.Random, thread-safe but contended when shared
+    public static class Standard implements RandomSource
+    {
+        protected final Random mRandom;
+
+        public Standard()
+        {
+            this(new Random());
+        }
+        public Standard(Random random)
+        {
+            mRandom = random;
+        }
+
+        @Override
+        public int nextInt(int bound)
+        {
+            return mRandom.nextInt(bound);
+        }
+
+        @Override
+        public long nextLong()
+        {
+            return mRandom.nextLong();
+        }
+    }
+
+    // anything producing 64 random bits at a time, bounded the same way
+    // java.util.Random does it
+    public static abstract class Bits64 implements RandomSource
+    {
+        @Override
+        public int nextInt(int bound)
+        {
+            if(bound <= 0)
+            {
+                throw new IllegalArgumentException("bound must be positive");
+            }
+            int r = (int) (nextLong() >>> 33);
+            int m = bound - 1;
+            if((bound & m) == 0)
+            {
+                return (int) ((bound * (long) r) >> 31);
+            }
+            for(int u = r; u - (r = u % bound) + m < 0;
+                    u = (int) (nextLong() >>> 33))
+            {
+            }
+            return r;
+        }
+    }
+
+    // SecureRandom, read a buffer at a time since every call into it is
+    // expensive
+    public static class Secure extends Bits64
+    {
+        public static final int BUFFER_BYTES = 4096;
+
+        protected final SecureRandom mRandom;
+        protected final byte[] mBuffer;
+        protected int mPosition;
+
+        public Secure()
+        {
+            this(new SecureRandom());
+        }
+        public Secure(SecureRandom random)
+        {
+            mRandom = random;
+            mBuffer = new byte[BUFFER_BYTES];
+            mPosition = BUFFER_BYTES;
+        }
+
+        @Override
+        public long nextLong()
+        {
+            if(mPosition == BUFFER_BYTES)
+            {
+                mRandom.nextBytes(mBuffer);
+                mPosition = 0;
+            }
+            long value = 0;
+            for(int i = 0; i < 8; i++)
+            {
+                value = (value << 8) | (mBuffer[mPosition++] & 0xff);
+            }
+            return value;
+        }
+    }
+
+    // SplitMix64, the generator behind java.util.SplittableRandom
+    public static class SplitMix extends Bits64
+    {
+        public static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+        protected long mState;
+
+        public SplitMix(long seed)
+        {
+            mState = seed;
+        }
+
+        @Override
+        public long nextLong()
+        {
+            return mix(mState += GOLDEN_GAMMA);
+        }
+
+        public static long mix(long z)
+        {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    // xoroshiro128**, small and very fast
+    public static class Xoroshiro extends Bits64
+    {
+        protected long mState0;
+        protected long mState1;
+
+        public Xoroshiro(long seed)
+        {
+            // spread the seed out so similar seeds give unrelated streams
+            SplitMix seeder = new SplitMix(seed);
+            mState0 = seeder.nextLong();
+            mState1 = seeder.nextLong();
+        }
+
+        @Override
+        public long nextLong()
+        {
+            long s0 = mState0;
+            long s1 = mState1;
+            long result = Long.rotateLeft(s0 * 5, 7) * 9;
+            s1 ^= s0;
+            mState0 = Long.rotateLeft(s0, 24) ^ s1 ^ (s1 << 16);
+            mState1 = Long.rotateLeft(s1, 37);
+            return result;
+        }
+    }
+
+    // one Xoroshiro per thread, seeded from SecureRandom, so a single
+    // instance can be shared by every thread without contention
+    public static class PerThread implements RandomSource
+    {
+        private static final SecureRandom sSeeder = new SecureRandom();
+
+        private final ThreadLocal<RandomSource> mSources =
+            new ThreadLocal<RandomSource>() {
+                @Override
+                protected RandomSource initialValue() {
+                    synchronized(sSeeder) {
+                        return new Xoroshiro(sSeeder.nextLong());
+                    }
+                }
+            };
+
+        @Override
+        public int nextInt(int bound)
+        {
+            return mSources.get().nextInt(bound);
+        }
+
+        @Override
+        public long nextLong()
+        {
+            return mSources.get().nextLong();
+        }
+    }
+}
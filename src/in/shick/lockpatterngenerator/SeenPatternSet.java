@@ -0,0 +1,203 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// One bit per pattern rank of a PatternIndex, recording which patterns have
+// been handed out.  Claims are compare-and-set on single words, so any
+// number of threads can claim at once without a lock.  claimFrom() scans
+// forward from its starting rank to the next free bit, which is strongly
+// biased: a free rank after a long run of claimed ones is reached from
+// every start in that run, and on a 3x3 set a quarter full the likeliest
+// pattern already comes up about 11x as often as a uniform pick would
+// have it.  Callers wanting uniform draws should try claim() on random
+// ranks first and scan only once those keep missing, as PatternGenerator
+// does.  A second bitmap marks the words with no free bits left, so a
+// scan through a nearly full set steps over 64 words at a time.  The
+// claimed count is kept in a few stripes so that threads claiming at once
+// don't all bump the same counter.  3x3 patterns of length 4 to 9 take
+// about 48KB.
+public class SeenPatternSet
+{
+    // counter stripes, each on its own cache line
+    private static final int STRIPES = 8, STRIPE_SPACING = 8;
+
+    protected final PatternIndex mIndex;
+    protected final AtomicLongArray mWords;
+    // bit i of word j set once mWords[j * 64 + i] is full
+    protected final AtomicLongArray mFullWords;
+    protected final AtomicLongArray mClaimed;
+
+    public SeenPatternSet(PatternIndex index)
+    {
+        long size = index.size();
+        long words = (size + 63) >>> 6;
+        if(words > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(
+                    "too many patterns to track: " + size);
+        }
+        mIndex = index;
+        mWords = new AtomicLongArray((int) words);
+        mFullWords = new AtomicLongArray((int) ((words + 63) >>> 6));
+        mClaimed = new AtomicLongArray(STRIPES * STRIPE_SPACING);
+        // bits past the last rank are never free, nor are words past the
+        // last one
+        if((size & 63) != 0)
+        {
+            mWords.set((int) words - 1, -1L << (size & 63));
+        }
+        if((words & 63) != 0)
+        {
+            mFullWords.set(mFullWords.length() - 1, -1L << (words & 63));
+        }
+    }
+
+    // Claims the first free rank at or after "start", wrapping around, and
+    // returns it, or -1 if every pattern has been claimed already
+    public long claimFrom(long start)
+    {
+        if(getClaimedCount() >= mIndex.size())
+        {
+            return -1;
+        }
+        int word = (int) (start >>> 6);
+        long rank = claimIn(word, -1L << (start & 63));
+        if(rank < 0)
+        {
+            rank = claimBetween(word + 1, mWords.length());
+        }
+        if(rank < 0)
+        {
+            rank = claimBetween(0, word + 1);
+        }
+        return rank;
+    }
+
+    // marks one particular pattern as handed out, returning false if it
+    // already was
+    public boolean claim(long rank)
+    {
+        return claimIn((int) (rank >>> 6), 1L << (rank & 63)) >= 0;
+    }
+
+    public boolean isClaimed(long rank)
+    {
+        return (mWords.get((int) (rank >>> 6)) & (1L << (rank & 63))) != 0;
+    }
+
+    //
+    // Accessors
+    //
+
+    // sums the stripes, so only exact once other threads stop claiming
+    public long getClaimedCount()
+    {
+        long claimed = 0;
+        for(int i = 0; i < STRIPES; i++)
+        {
+            claimed += mClaimed.get(i * STRIPE_SPACING);
+        }
+        return claimed;
+    }
+
+    public PatternIndex getIndex()
+    {
+        return mIndex;
+    }
+
+    //
+    // Helper methods
+    //
+
+    // claims the lowest free bit of "word" within "mask", returning its
+    // rank or -1 if there is none
+    private long claimIn(int word, long mask)
+    {
+        while(true)
+        {
+            long bits = mWords.get(word);
+            long free = ~bits & mask;
+            if(free == 0)
+            {
+                return -1;
+            }
+            long bit = free & -free;
+            if(mWords.compareAndSet(word, bits, bits | bit))
+            {
+                if((bits | bit) == -1L)
+                {
+                    markFull(word);
+                }
+                int stripe = (int) (Thread.currentThread().getId()
+                        & (STRIPES - 1));
+                mClaimed.incrementAndGet(stripe * STRIPE_SPACING);
+                return ((long) word << 6) + Long.numberOfTrailingZeros(bit);
+            }
+        }
+    }
+
+    // claims the first free bit in words [from, to), passing over the
+    // words already marked full
+    private long claimBetween(int from, int to)
+    {
+        int word = from;
+        while(word < to)
+        {
+            int summary = word >>> 6;
+            long open = ~mFullWords.get(summary) & (-1L << (word & 63));
+            if(open == 0)
+            {
+                if(summary + 1 >= mFullWords.length())
+                {
+                    break;
+                }
+                word = (summary + 1) << 6;
+                continue;
+            }
+            word = (summary << 6) + Long.numberOfTrailingZeros(open);
+            if(word >= to)
+            {
+                break;
+            }
+            long rank = claimIn(word, -1L);
+            if(rank >= 0)
+            {
+                return rank;
+            }
+            word++;
+        }
+        return -1;
+    }
+
+    private void markFull(int word)
+    {
+        int summary = word >>> 6;
+        long bit = 1L << (word & 63);
+        while(true)
+        {
+            long bits = mFullWords.get(summary);
+            if(mFullWords.compareAndSet(summary, bits, bits | bit))
+            {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+Copyright 2010-2013 Michael Shick
+
+This file is part of 'Lock Pattern Generator'.
+
+'Lock Pattern Generator' is free software: you can redistribute it and/or
+modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your option)
+any later version.
+
+'Lock Pattern Generator' is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+details.
+
+You should have received a copy of the GNU General Public License along with
+'Lock Pattern Generator'.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package in.shick.lockpatterngenerator.tools;
+
+import in.shick.lockpatterngenerator.LayeredPatternCounter;
+import in.shick.lockpatterngenerator.ParallelPatternGenerator;
+import in.shick.lockpatterngenerator.PatternCounter;
+import in.shick.lockpatterngenerator.PatternDictionary;
+import in.shick.lockpatterngenerator.PatternEncoder;
+import in.shick.lockpatterngenerator.PatternRecords;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+
+// Headless bulk generation for provisioning servers:
+//
+//   java -cp out in.shick.lockpatterngenerator.tools.PatternTool \
+//       -grid 3 -min 4 -max 9 -count 100000000 -out patterns.bin \
+//       [-format binary|text|packed|dictionary|keyspace] [-seed 1234] \
+//       [-threads 8] [-scratch DIR]
+//
+// Patterns are made by ParallelPatternGenerator in blocks of whole chunks,
+// as many as fit BLOCK_INTS ints at the greatest length, and written
+// through a FileChannel from one large direct buffer, so no Point, List or
+// String is built per pattern.  Binary output is the length-prefixed int
+// layout of PatternGenerator.generateBatch(), big-endian; text output is one
+// pattern per line, node indices separated by spaces; packed output is the
+// PatternEncoder stream, a few bytes per pattern.  The same seed always gives
+// the same file, whatever the thread count.  The dictionary format ignores
+// -count, -seed and -threads and writes every pattern once, in rank order,
+// as a PatternDictionary file.  The keyspace format writes the exact
+// number of patterns of each length from -min to -max, then their total,
+// one per line, counted by LayeredPatternCounter on -threads threads with
+// its layers in direct buffers or, given -scratch, in files there.
+public class PatternTool
+{
+    public static final int BLOCK_INTS = 8 * 1024 * 1024;
+    public static final int OUTPUT_BUFFER_BYTES = 8 * 1024 * 1024;
+
+    public static final int FORMAT_BINARY = 0;
+    public static final int FORMAT_TEXT = 1;
+    public static final int FORMAT_PACKED = 2;
+    public static final int FORMAT_DICTIONARY = 3;
+    public static final int FORMAT_KEYSPACE = 4;
+
+    protected int mGridLength = 3;
+    protected int mMinNodes = 4;
+    protected int mMaxNodes = 9;
+    protected long mCount = 1;
+    protected String mOutput;
+    protected int mFormat = FORMAT_BINARY;
+    protected long mSeed = new SecureRandom().nextLong();
+    protected int mThreads = Runtime.getRuntime().availableProcessors();
+    protected File mScratch;
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException
+    {
+        PatternTool tool = new PatternTool();
+        try
+        {
+            tool.parseArgs(args);
+        }
+        catch(IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("usage: PatternTool -out FILE [-grid N]"
+                    + " [-min N] [-max N] [-count N]"
+                    + " [-format binary|text|packed|dictionary|keyspace]"
+                    + " [-seed N] [-threads N] [-scratch DIR]");
+            System.exit(2);
+        }
+        tool.run();
+    }
+
+    protected void parseArgs(String[] args)
+    {
+        for(int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if(i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            try
+            {
+                if("-grid".equals(arg))
+                {
+                    mGridLength = Integer.parseInt(value);
+                }
+                else if("-min".equals(arg))
+                {
+                    mMinNodes = Integer.parseInt(value);
+                }
+                else if("-max".equals(arg))
+                {
+                    mMaxNodes = Integer.parseInt(value);
+                }
+                else if("-count".equals(arg))
+                {
+                    mCount = Long.parseLong(value);
+                }
+                else if("-out".equals(arg))
+                {
+                    mOutput = value;
+                }
+                else if("-format".equals(arg))
+                {
+                    if("binary".equals(value))
+                    {
+                        mFormat = FORMAT_BINARY;
+                    }
+                    else if("text".equals(value))
+                    {
+                        mFormat = FORMAT_TEXT;
+                    }
+                    else if("packed".equals(value))
+                    {
+                        mFormat = FORMAT_PACKED;
+                    }
+                    else if("dictionary".equals(value))
+                    {
+                        mFormat = FORMAT_DICTIONARY;
+                    }
+                    else if("keyspace".equals(value))
+                    {
+                        mFormat = FORMAT_KEYSPACE;
+                    }
+                    else
+                    {
+                        throw new IllegalArgumentException(
+                                "unknown format: " + value);
+                    }
+                }
+                else if("-seed".equals(arg))
+                {
+                    mSeed = Long.parseLong(value);
+                }
+                else if("-threads".equals(arg))
+                {
+                    mThreads = Integer.parseInt(value);
+                }
+                else if("-scratch".equals(arg))
+                {
+                    mScratch = new File(value);
+                }
+                else
+                {
+                    throw new IllegalArgumentException(
+                            "unknown option: " + arg);
+                }
+            }
+            catch(NumberFormatException e)
+            {
+                throw new IllegalArgumentException(
+                        "not a number for " + arg + ": " + value);
+            }
+        }
+        if(mOutput == null)
+        {
+            throw new IllegalArgumentException("no output file given");
+        }
+        int nodeCount = mGridLength * mGridLength;
+        if(mGridLength < 1 || mMinNodes < 1 || mMinNodes > mMaxNodes
+                || mMinNodes > nodeCount || mCount < 0 || mThreads < 1)
+        {
+            throw new IllegalArgumentException("bad settings");
+        }
+        mMaxNodes = Math.min(mMaxNodes, nodeCount);
+        if(mFormat == FORMAT_DICTIONARY
+                && !PatternCounter.isSupported(mGridLength))
+        {
+            throw new IllegalArgumentException(
+                    "dictionaries need a grid of at most "
+                    + PatternCounter.MAX_GRID_LENGTH);
+        }
+        if(mFormat == FORMAT_KEYSPACE
+                && !LayeredPatternCounter.isSupported(mGridLength))
+        {
+            throw new IllegalArgumentException(
+                    "keyspaces need a grid of at most "
+                    + LayeredPatternCounter.MAX_GRID_LENGTH);
+        }
+    }
+
+    protected void run() throws IOException, InterruptedException
+    {
+        if(mFormat == FORMAT_DICTIONARY)
+        {
+            long start = System.nanoTime();
+            long count = PatternDictionary.write(new File(mOutput),
+                    mGridLength, mMinNodes, mMaxNodes);
+            System.err.printf("%d patterns in %.2f s%n", count,
+                    (System.nanoTime() - start) / 1e9);
+            return;
+        }
+        if(mFormat == FORMAT_KEYSPACE)
+        {
+            writeKeyspace();
+            return;
+        }
+        ParallelPatternGenerator generator =
+            new ParallelPatternGenerator(mThreads);
+        generator.setGridLength(mGridLength);
+        generator.setMinNodes(mMinNodes);
+        generator.setMaxNodes(mMaxNodes);
+
+        // whole chunks, so each block carries on the sequence of the last,
+        // but never more than the run needs
+        int chunkPatterns = ParallelPatternGenerator.CHUNK_PATTERNS;
+        int blockChunks =
+            Math.max(BLOCK_INTS / (1 + mMaxNodes) / chunkPatterns, 1);
+        int blockPatterns =
+            (int) Math.min((long) blockChunks * chunkPatterns, mCount);
+        IntBuffer block = IntBuffer.allocate(blockPatterns * (1 + mMaxNodes));
+        ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_BYTES);
+        FileOutputStream stream = new FileOutputStream(mOutput);
+        FileChannel channel = stream.getChannel();
+        PatternEncoder encoder = null;
+        int[] pattern = new int[mMaxNodes];
+        long start = System.nanoTime();
+        long bytes;
+        try
+        {
+            if(mFormat == FORMAT_PACKED)
+            {
+                encoder = new PatternEncoder(Channels.newOutputStream(channel),
+                        mGridLength);
+            }
+            int chunk = 0;
+            for(long done = 0; done < mCount; done += blockPatterns)
+            {
+                block.clear();
+                generator.generateBatch(mSeed, chunk,
+                        (int) Math.min(blockPatterns, mCount - done), block);
+                chunk += blockChunks;
+                block.flip();
+                if(mFormat == FORMAT_PACKED)
+                {
+                    writePacked(block, encoder, pattern);
+                }
+                else if(mFormat == FORMAT_TEXT)
+                {
+                    writeText(block, output, channel);
+                }
+                else
+                {
+                    writeBinary(block, output, channel);
+                }
+            }
+            if(encoder != null)
+            {
+                encoder.flush();
+            }
+            PatternRecords.flush(output, channel);
+            bytes = channel.position();
+        }
+        finally
+        {
+            channel.close();
+            stream.close();
+            generator.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d patterns, %.1f MB in %.2f s: %.0f patterns/s,"
+                + " %.1f MB/s%n", mCount, bytes / 1e6, seconds,
+                mCount / seconds, bytes / 1e6 / seconds);
+    }
+
+    //
+    // Helper methods
+    //
+
+    private void writeKeyspace() throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        BigInteger[] counts = new LayeredPatternCounter(mThreads, mScratch)
+            .getCounts(mGridLength);
+        StringBuilder text = new StringBuilder();
+        BigInteger total = BigInteger.ZERO;
+        for(int length = mMinNodes; length <= mMaxNodes; length++)
+        {
+            text.append(length).append(' ').append(counts[length])
+                .append('\n');
+            total = total.add(counts[length]);
+        }
+        text.append("total ").append(total).append('\n');
+        FileOutputStream stream = new FileOutputStream(mOutput);
+        try
+        {
+            stream.write(text.toString().getBytes("US-ASCII"));
+        }
+        finally
+        {
+            stream.close();
+        }
+        System.err.printf("%s patterns in %.2f s%n", total,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void writeBinary(IntBuffer block, ByteBuffer output,
+            FileChannel channel) throws IOException
+    {
+        while(block.hasRemaining())
+        {
+            if(output.remaining() < 4)
+            {
+                PatternRecords.flush(output, channel);
+            }
+            IntBuffer view = output.asIntBuffer();
+            int ints = Math.min(view.remaining(), block.remaining());
+            int limit = block.limit();
+            block.limit(block.position() + ints);
+            view.put(block);
+            block.limit(limit);
+            output.position(output.position() + ints * 4);
+        }
+    }
+
+    private static void writePacked(IntBuffer block, PatternEncoder encoder,
+            int[] pattern) throws IOException
+    {
+        while(block.hasRemaining())
+        {
+            int length = block.get();
+            block.get(pattern, 0, length);
+            encoder.write(pattern, length);
+        }
+    }
+
+    private static void writeText(IntBuffer block, ByteBuffer output,
+            FileChannel channel) throws IOException
+    {
+        while(block.hasRemaining())
+        {
+            int length = block.get();
+            // at most 10 digits and a separator per node
+            if(output.remaining() < 11 * length + 1)
+            {
+                PatternRecords.flush(output, channel);
+            }
+            for(int i = 0; i < length; i++)
+            {
+                if(i > 0)
+                {
+                    output.put((byte) ' ');
+                }
+                putDecimal(output, block.get());
+            }
+            output.put((byte) '\n');
+        }
+    }
+
+    // ASCII digits of a non-negative int, without going through a String
+    private static void putDecimal(ByteBuffer output, int value)
+    {
+        if(value < 10)
+        {
+            output.put((byte) ('0' + value));
+            return;
+        }
+        int digits = 1;
+        for(int rest = value / 10; rest > 0; rest /= 10)
+        {
+            digits++;
+        }
+        int end = output.position() + digits;
+        for(int i = end - 1; i >= output.position(); i--)
+        {
+            output.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        output.position(end);
+    }
+}